@@ -0,0 +1,137 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.togglize.client.ToggleHandle;
+import com.togglize.client.TogglesClient;
+import com.togglize.client.TogglesConfiguration;
+import com.togglize.client.TogglesContext;
+import com.togglize.client.TogglesException;
+import com.togglize.client.domain.User;
+
+/**
+ * Measures TogglesClient evaluation against an in-process FakeTogglesServer, for stages of 10, 1k and 100k
+ * features, with the cached toggles either fresh ('hit') or always expired ('expired', a zero TTL forcing the
+ * on-demand refresh path). Run with -prof gc (the profile default) to report allocation rates.
+ * <p/>
+ * The nested classes run the same benchmarks with 1, 8 and 64 threads.
+ * 
+ * @author tfredrich
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class EvaluationBenchmark
+{
+	@Param({"10", "1000", "100000"})
+	public int featureCount;
+
+	@Param({"hit", "expired"})
+	public String cache;
+
+	private FakeTogglesServer server;
+	private TogglesClient client;
+	private String featureName;
+	private String rolloutFeatureName;
+	private ToggleHandle rolloutHandle;
+	private TogglesContext context;
+
+	@Setup(Level.Trial)
+	public void setup()
+	throws Exception
+	{
+		server = new FakeTogglesServer(featureCount).start();
+		client = newClient("hit".equals(cache) ? 600000l : 0l);
+		featureName = FakeTogglesServer.featureName(featureCount / 2 + 1);
+		rolloutFeatureName = FakeTogglesServer.featureName(0);
+		rolloutHandle = client.toggle(rolloutFeatureName);
+		context = new TogglesContext().setUser(new User("7d3c1a9e-5b4f-4e8a-9f0c-2a6b8d1e4f70"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		client.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public boolean isEnabled()
+	{
+		return client.isEnabled(featureName);
+	}
+
+	@Benchmark
+	public boolean isEnabledWithContext()
+	{
+		return client.isEnabled(rolloutFeatureName, context, false);
+	}
+
+	@Benchmark
+	public boolean handleIsEnabledWithContext()
+	{
+		return rolloutHandle.isEnabled(context, false);
+	}
+
+	private TogglesClient newClient(long cacheTtlMillis)
+	throws TogglesException
+	{
+		return new TogglesConfiguration("benchmark-client", "benchmark-secret")
+			.setBaseTokenUrl(server.getBaseUrl())
+			.setBaseTogglesUrl(server.getBaseUrl())
+			.setStage(FakeTogglesServer.STAGE)
+			.setCacheTtlMillis(cacheTtlMillis)
+			.newTogglesClient();
+	}
+
+	@Threads(1)
+	public static class OneThread
+	extends EvaluationBenchmark
+	{
+	}
+
+	@Threads(8)
+	public static class EightThreads
+	extends EvaluationBenchmark
+	{
+	}
+
+	@Threads(64)
+	public static class SixtyFourThreads
+	extends EvaluationBenchmark
+	{
+	}
+}
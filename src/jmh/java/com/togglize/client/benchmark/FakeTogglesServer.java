@@ -0,0 +1,123 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Nifli token and toggles endpoints, serving a fixed set of generated features.
+ * Every tenth feature carries a 'gradualRollout' strategy so context evaluation is exercised.
+ * 
+ * @author tfredrich
+ */
+public class FakeTogglesServer
+{
+	public static final String STAGE = "development";
+
+	private static final byte[] TOKEN = "{\"token_type\": \"bearer\", \"access_token\": \"benchmark\", \"expires_in\": 3600}".getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+	private byte[] toggles;
+	private AtomicLong fetches = new AtomicLong();
+
+	public FakeTogglesServer(int featureCount)
+	{
+		super();
+		this.toggles = togglesJson(featureCount).getBytes(StandardCharsets.UTF_8);
+	}
+
+	public static String featureName(int i)
+	{
+		return String.format("feature-%06d", i);
+	}
+
+	public FakeTogglesServer start()
+	throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/token", exchange -> respond(exchange, TOKEN));
+		server.createContext("/stages/" + STAGE + "/features", exchange -> {
+			fetches.incrementAndGet();
+			respond(exchange, toggles);
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return this;
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+	}
+
+	public String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public long getFetchCount()
+	{
+		return fetches.get();
+	}
+
+	private static void respond(HttpExchange exchange, byte[] body)
+	throws IOException
+	{
+		exchange.getRequestBody().close();
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	private static String togglesJson(int featureCount)
+	{
+		StringBuilder json = new StringBuilder(featureCount * 160);
+		json.append("{\"stage\": {\"id\": \"stage-1\", \"name\": \"").append(STAGE).append("\"}, \"features\": {");
+
+		for (int i = 0; i < featureCount; i++)
+		{
+			String name = featureName(i);
+
+			if (i > 0) json.append(',');
+
+			json.append('"').append(name).append("\": {\"id\": \"").append(i)
+				.append("\", \"name\": \"").append(name)
+				.append("\", \"description\": \"Generated benchmark feature ").append(i)
+				.append("\", \"enabled\": ").append(i % 2 == 0);
+
+			if (i % 10 == 0)
+			{
+				json.append(", \"strategies\": [{\"name\": \"gradualRollout\", \"parameters\": {\"percentage\": \"50\"}}]");
+			}
+
+			json.append('}');
+		}
+
+		return json.append("}}").toString();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracks the health of the remote toggles API so that refreshes back off while it is failing.
+ * <p/>
+ * The breaker starts CLOSED, allowing every request. A failure OPENs it for an exponentially-growing, jittered
+ * backoff period, during which allowRequest() answers false without locking. Once the backoff lapses the breaker
+ * is HALF_OPEN and lets a probe through: success closes it again, failure re-opens it with a longer backoff.
+ * 
+ * @author tfredrich
+ */
+public class CircuitBreaker
+{
+	public enum State
+	{
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	// Caps the exponent so the shift can't overflow.
+	private static final int MAX_BACKOFF_EXPONENT = 30;
+
+	private long minBackoffMillis;
+	private long maxBackoffMillis;
+	private volatile State state = State.CLOSED;
+	private volatile long retryAt;
+	private int failures;
+
+	public CircuitBreaker(long minBackoffMillis, long maxBackoffMillis)
+	{
+		super();
+		this.minBackoffMillis = Math.max(1l, minBackoffMillis);
+		this.maxBackoffMillis = Math.max(this.minBackoffMillis, maxBackoffMillis);
+	}
+
+	/**
+	 * Answer whether a request to the remote API should be attempted now. Constant-time and lock-free while
+	 * the breaker is closed or backing off.
+	 * 
+	 * @param now the current time in milliseconds.
+	 * @return true if a request may be made.
+	 */
+	public boolean allowRequest(long now)
+	{
+		if (state == State.CLOSED) return true;
+		if (now < retryAt) return false;
+
+		synchronized (this)
+		{
+			if (state == State.OPEN && now >= retryAt)
+			{
+				state = State.HALF_OPEN;
+			}
+
+			return state != State.OPEN;
+		}
+	}
+
+	/**
+	 * Record a successful request, closing the breaker.
+	 * 
+	 * @return true if the breaker was previously open or half-open (i.e. the remote API has recovered).
+	 */
+	public synchronized boolean onSuccess()
+	{
+		boolean recovered = (state != State.CLOSED);
+		failures = 0;
+		retryAt = 0l;
+		state = State.CLOSED;
+		return recovered;
+	}
+
+	/**
+	 * Record a failed request, opening the breaker for a jittered, exponentially-increasing backoff period.
+	 * 
+	 * @param now the current time in milliseconds.
+	 * @return true if this failure opened a previously-closed breaker (i.e. the first failure of an outage).
+	 */
+	public synchronized boolean onFailure(long now)
+	{
+		boolean opened = (state == State.CLOSED);
+		long ceiling = Math.min(maxBackoffMillis, minBackoffMillis << Math.min(failures++, MAX_BACKOFF_EXPONENT));
+		long half = ceiling / 2;
+		retryAt = now + half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+		state = State.OPEN;
+		return opened;
+	}
+
+	public State getState()
+	{
+		return state;
+	}
+
+	/**
+	 * @return the time in milliseconds after which the next request is allowed. Zero if the breaker is closed.
+	 */
+	public long getRetryAt()
+	{
+		return retryAt;
+	}
+}
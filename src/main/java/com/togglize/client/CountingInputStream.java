@@ -0,0 +1,74 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, e.g. to compare the size of a response body on the wire with its decoded size.
+ * 
+ * @author tfredrich
+ */
+class CountingInputStream
+extends FilterInputStream
+{
+	private long count;
+
+	CountingInputStream(InputStream in)
+	{
+		super(in);
+	}
+
+	long getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public int read()
+	throws IOException
+	{
+		int b = super.read();
+		if (b >= 0) count++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+	throws IOException
+	{
+		int n = super.read(b, off, len);
+		if (n > 0) count += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n)
+	throws IOException
+	{
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.event.Events;
+import com.togglize.client.event.FetchedEvent;
+import com.togglize.client.snapshot.BinarySnapshot;
+import com.togglize.client.snapshot.FileSnapshotStore;
+import com.togglize.client.snapshot.TogglesSnapshot;
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * Reads the toggles from a local file instead of the remote API. The file may hold a toggles payload as returned by
+ * the remote API (complete or a delta), a snapshot written by a FileSnapshotStore, or a BinarySnapshot. Like
+ * TogglesFetcher, it publishes a FetchedEvent for every set of toggles read, so handlers and metrics work the same.
+ * <p/>
+ * Once watch() is called, the file's directory is watched with a WatchService and the caller is notified whenever the
+ * file is created or modified, so changes are picked up as they happen rather than on the next refresh. On Linux
+ * that's within milliseconds; platforms without native file notifications fall back to the JDK's polling watcher.
+ * Replace the file atomically (write a temporary file and rename it); a partially-written file fails to parse and is
+ * reported as a failed refresh.
+ * <p/>
+ * The CRC32 of the file's contents serves as its ETag: reading an unchanged file returns the current snapshot with
+ * its freshness extended, without rebuilding it.
+ * 
+ * @author tfredrich
+ */
+public class FileTogglesSource
+implements TogglesSource, Closeable
+{
+	private static final Logger LOG = LogManager.getLogger(FileTogglesSource.class);
+
+	private static final String THREAD_NAME = "toggles-file-watcher";
+
+	private Path path;
+	private StrategyCompiler compiler;
+	private WatchService watcher;
+
+	public FileTogglesSource(Path path, StrategyCompiler compiler)
+	{
+		super();
+		this.path = path;
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Reads the toggles from the file.
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a new snapshot, or the current snapshot if the file hasn't changed.
+	 * @throws TogglesException if the file can't be read or doesn't hold toggles.
+	 */
+	@Override
+	public TogglesSnapshot fetch(TogglesSnapshot current)
+	throws TogglesException
+	{
+		try
+		{
+			byte[] bytes = Files.readAllBytes(path);
+			String etag = checksum(bytes);
+
+			if (current != null && etag.equals(current.getEtag()))
+			{
+				return current.withFetchedAt(System.currentTimeMillis());
+			}
+
+			StageToggles toggles = read(bytes);
+			TogglesSnapshot snapshot = TogglesFetcher.newSnapshot(toggles, current, etag, null, compiler);
+			Events.publish(new FetchedEvent(toggles));
+			return snapshot;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			throw new TogglesException("Unable to read toggles from " + path, e);
+		}
+	}
+
+	/**
+	 * Reads the toggles from the file on the calling thread. The file is local, so there's no remote call to wait on.
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a future completed as for fetch().
+	 */
+	@Override
+	public CompletableFuture<TogglesSnapshot> fetchAsync(TogglesSnapshot current)
+	{
+		CompletableFuture<TogglesSnapshot> result = new CompletableFuture<>();
+
+		try
+		{
+			result.complete(fetch(current));
+		}
+		catch (TogglesException e)
+		{
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Begin watching the file on a background thread, calling onChange whenever it's created or modified.
+	 * Does nothing if already watching.
+	 * 
+	 * @param onChange called on the watcher thread, e.g. to refresh the toggles. Never null.
+	 * @throws IOException if the file's directory can't be watched.
+	 */
+	public synchronized void watch(Runnable onChange)
+	throws IOException
+	{
+		if (watcher != null) return;
+
+		Path directory = path.toAbsolutePath().getParent();
+		WatchService service = directory.getFileSystem().newWatchService();
+
+		try
+		{
+			directory.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			service.close();
+			throw e;
+		}
+
+		this.watcher = service;
+		Thread thread = new Thread(() -> awaitChanges(service, onChange), THREAD_NAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the file. The toggles already read remain available.
+	 */
+	@Override
+	public synchronized void close()
+	throws IOException
+	{
+		if (watcher == null) return;
+
+		watcher.close();
+		this.watcher = null;
+	}
+
+	public Path getPath()
+	{
+		return path;
+	}
+
+	@Override
+	public String toString()
+	{
+		return path.toString();
+	}
+
+	private void awaitChanges(WatchService service, Runnable onChange)
+	{
+		Path name = path.getFileName();
+
+		try
+		{
+			while (true)
+			{
+				WatchKey key = service.take();
+				boolean isChanged = false;
+
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					// An overflow means events were lost, possibly for this file.
+					isChanged |= (event.kind() == OVERFLOW || name.equals(event.context()));
+				}
+
+				if (isChanged) notify(onChange);
+
+				if (!key.reset())
+				{
+					LOG.warn("No longer able to watch " + path.toAbsolutePath().getParent() + " for toggles changes.");
+					return;
+				}
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// Closed.
+		}
+	}
+
+	private void notify(Runnable onChange)
+	{
+		try
+		{
+			onChange.run();
+		}
+		catch (RuntimeException e)
+		{
+			LOG.warn("Unable to apply toggles from " + path, e);
+		}
+	}
+
+	/**
+	 * Reads the toggles in whichever format the file holds. JSON files start with an object; binary snapshots
+	 * start with their fetch time, whose first byte is never '{'. Strategies aren't compiled here; that's done
+	 * once, when the new snapshot is built.
+	 */
+	private StageToggles read(byte[] bytes)
+	throws IOException
+	{
+		if (!isJson(bytes))
+		{
+			return BinarySnapshot.decodeToggles(ByteBuffer.wrap(bytes));
+		}
+
+		try
+		{
+			return FileSnapshotStore.togglesFromJson(bytes);
+		}
+		catch (IOException e)
+		{
+			// Not a FileSnapshotStore snapshot. Try the remote API's payload.
+			return StageTogglesReader.read(new ByteArrayInputStream(bytes));
+		}
+	}
+
+	private static boolean isJson(byte[] bytes)
+	{
+		for (byte b : bytes)
+		{
+			if (!Character.isWhitespace(b)) return (b == '{');
+		}
+
+		return false;
+	}
+
+	private static String checksum(byte[] bytes)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return Long.toHexString(crc.getValue());
+	}
+}
@@ -0,0 +1,59 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.text.SimpleDateFormat;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * The Jackson ObjectMapper shared by everything that binds Toggles API payloads (e.g. token responses) rather
+ * than reading them with a streaming parser. ObjectMappers are thread-safe once configured.
+ * 
+ * @author tfredrich
+ */
+public final class Json
+{
+	public static final ObjectMapper MAPPER = new ObjectMapper()
+		.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+
+		// Ignore additional/unknown properties in a payload.
+		.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+		
+		// Only serialize populated properties (do no serialize nulls)
+		.setSerializationInclusion(JsonInclude.Include.NON_NULL)
+		
+		// Use fields directly.
+		.setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+		
+		// Ignore accessor and mutator methods (use fields per above).
+		.setVisibility(PropertyAccessor.GETTER, Visibility.NONE)
+		.setVisibility(PropertyAccessor.SETTER, Visibility.NONE)
+		.setVisibility(PropertyAccessor.IS_GETTER, Visibility.NONE)
+		
+		// Set default ISO 8601 timepoint output format.
+		.setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"));
+
+	private Json()
+	{
+		super();
+	}
+}
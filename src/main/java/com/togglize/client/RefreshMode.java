@@ -0,0 +1,50 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+/**
+ * Determines how the TogglesClient keeps its cached feature toggles current.
+ * 
+ * @author tfredrich
+ */
+public enum RefreshMode
+{
+	/**
+	 * The first isEnabled() call after the cache TTL lapses fetches the toggles from the remote API on the calling thread.
+	 */
+	ON_DEMAND,
+
+	/**
+	 * A dedicated scheduler thread refreshes the toggles before the cache TTL lapses. Callers are always served the
+	 * last successfully-fetched toggles and never wait on the remote API.
+	 */
+	BACKGROUND,
+
+	/**
+	 * The client holds a long-lived server-sent events connection to the remote API, which pushes toggle changes as
+	 * they happen. While the stream is disconnected, the toggles are polled in the background as for BACKGROUND, and
+	 * the stream reconnects with backoff.
+	 */
+	STREAMING,
+
+	/**
+	 * Every client on the host configured with the same shared snapshot file shares one copy of the toggles through
+	 * a memory-mapped file. Only one of them (whichever holds the file's lock) refreshes from the remote API, as
+	 * for BACKGROUND, and writes each change to the file. The others poll the file, which is cheap, instead of the
+	 * remote API. If the fetching client exits, another takes over.
+	 */
+	SHARED
+}
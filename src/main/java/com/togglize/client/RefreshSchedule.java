@@ -0,0 +1,87 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when the next background refresh is due, so that a fleet of clients started together (e.g. by a deploy)
+ * spreads its requests across the refresh interval instead of hitting the remote API in the same second every cycle.
+ * <p/>
+ * The first refresh after startup happens at a random phase offset within the interval. Every refresh after that
+ * is jittered to between 75% and 100% of the interval, so clients drift apart rather than back into lockstep, while
+ * never refreshing later than the interval allows.
+ * <p/>
+ * When adaptive, the interval shrinks to a quarter of its maximum as soon as a refresh sees a change, since changes
+ * tend to come in bursts (e.g. during a rollout), then doubles with each quiet refresh back to the maximum.
+ * 
+ * @author tfredrich
+ */
+public class RefreshSchedule
+{
+	private static final double JITTER_RATIO = 0.25;
+	private static final int ADAPTIVE_DIVISOR = 4;
+
+	private long maxIntervalMillis;
+	private long minIntervalMillis;
+	private boolean isAdaptive;
+	private volatile long intervalMillis;
+	private volatile boolean isFirst = true;
+
+	public RefreshSchedule(long maxIntervalMillis, boolean isAdaptive)
+	{
+		super();
+		this.maxIntervalMillis = Math.max(1l, maxIntervalMillis);
+		this.minIntervalMillis = Math.max(1l, this.maxIntervalMillis / ADAPTIVE_DIVISOR);
+		this.isAdaptive = isAdaptive;
+		this.intervalMillis = this.maxIntervalMillis;
+	}
+
+	/**
+	 * Returns how long after the last refresh the next one is due.
+	 * 
+	 * @return the delay in milliseconds, between zero and the current interval inclusive.
+	 */
+	public long nextDelay()
+	{
+		long interval = intervalMillis;
+
+		if (isFirst)
+		{
+			isFirst = false;
+			return ThreadLocalRandom.current().nextLong(interval + 1);
+		}
+
+		return ThreadLocalRandom.current().nextLong(interval - (long) (interval * JITTER_RATIO), interval + 1);
+	}
+
+	/**
+	 * Record the outcome of a successful refresh.
+	 * 
+	 * @param isChanged true if the refresh fetched different toggles than before.
+	 */
+	public void onRefreshed(boolean isChanged)
+	{
+		if (!isAdaptive) return;
+
+		intervalMillis = (isChanged ? minIntervalMillis : Math.min(maxIntervalMillis, intervalMillis * 2));
+	}
+
+	public long getIntervalMillis()
+	{
+		return intervalMillis;
+	}
+}
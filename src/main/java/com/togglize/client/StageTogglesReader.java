@@ -0,0 +1,282 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.Release;
+import com.togglize.client.domain.Stage;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+
+/**
+ * Reads a toggles payload token-by-token with a Jackson JsonParser instead of binding it via the ObjectMapper.
+ * The payload is never held as a String or a JSON tree, and only the fields needed to evaluate toggles are
+ * kept: each feature's id, name, enabled flags, release id and strategies, plus the stage and delta-sync fields.
+ * Everything else (e.g. descriptions, slugs and strategy ids) is skipped without being materialized, so those
+ * getters return null on toggles read here. The reader parses from a
+ * stream, but a fetched response body has already been received in full (see AsyncHttpTransport).
+ * 
+ * @author tfredrich
+ */
+final class StageTogglesReader
+{
+	private StageTogglesReader()
+	{
+		super();
+	}
+
+	/**
+	 * Read the stage toggles from a response body. The stream is not closed.
+	 * 
+	 * @param in a UTF-8 encoded toggles payload.
+	 * @return the stage toggles. Never null.
+	 * @throws IOException if the payload can't be read or isn't a JSON object.
+	 */
+	static StageToggles read(InputStream in)
+	throws IOException
+	{
+		try (JsonParser parser = Json.MAPPER.getFactory().createParser(in))
+		{
+			parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			return readStageToggles(parser);
+		}
+	}
+
+	/**
+	 * Read the stage toggles from a payload that has already been received as a String (e.g. a stream event).
+	 * 
+	 * @param json a toggles payload.
+	 * @return the stage toggles. Never null.
+	 * @throws IOException if the payload isn't a JSON object.
+	 */
+	static StageToggles read(String json)
+	throws IOException
+	{
+		try (JsonParser parser = Json.MAPPER.getFactory().createParser(json))
+		{
+			return readStageToggles(parser);
+		}
+	}
+
+	private static StageToggles readStageToggles(JsonParser parser)
+	throws IOException
+	{
+		expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+		Stage stage = null;
+		Map<String, FeatureToggle> features = null;
+		String version = null;
+		boolean delta = false;
+		List<String> removed = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			if (value == JsonToken.VALUE_NULL) continue;
+
+			switch (field)
+			{
+				case "stage":
+					stage = readStage(parser);
+					break;
+				case "features":
+					features = readFeatures(parser);
+					break;
+				case "version":
+					version = parser.getText();
+					break;
+				case "delta":
+					delta = parser.getValueAsBoolean();
+					break;
+				case "removed":
+					removed = readStrings(parser);
+					break;
+				default:
+					parser.skipChildren();
+			}
+		}
+
+		expect(parser.currentToken(), JsonToken.END_OBJECT, parser);
+		return new StageToggles(stage, features, version, delta, removed);
+	}
+
+	private static Stage readStage(JsonParser parser)
+	throws IOException
+	{
+		expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+		String id = null;
+		String name = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			parser.nextToken();
+
+			if ("id".equals(field)) id = parser.getValueAsString();
+			else if ("name".equals(field)) name = parser.getValueAsString();
+			else parser.skipChildren();
+		}
+
+		return new Stage(id, name);
+	}
+
+	private static Map<String, FeatureToggle> readFeatures(JsonParser parser)
+	throws IOException
+	{
+		expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+		Map<String, FeatureToggle> features = new HashMap<>();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String key = parser.getCurrentName();
+			features.put(key, (parser.nextToken() == JsonToken.VALUE_NULL ? null : readFeature(parser)));
+		}
+
+		return features;
+	}
+
+	private static FeatureToggle readFeature(JsonParser parser)
+	throws IOException
+	{
+		expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+		String id = null;
+		String name = null;
+		boolean enabled = false;
+		Collection<Strategy> strategies = null;
+		Release release = null;
+		Boolean featureEnabled = null;
+		Boolean releaseEnabled = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			if ("id".equals(field)) id = parser.getValueAsString();
+			else if ("name".equals(field)) name = parser.getValueAsString();
+			else if ("enabled".equals(field)) enabled = parser.getValueAsBoolean();
+			else if ("strategies".equals(field) && value == JsonToken.START_ARRAY) strategies = readStrategies(parser);
+			else if ("release".equals(field) && value == JsonToken.START_OBJECT) release = readRelease(parser);
+			else if ("featureEnabled".equals(field) && value != JsonToken.VALUE_NULL) featureEnabled = parser.getValueAsBoolean();
+			else if ("releaseEnabled".equals(field) && value != JsonToken.VALUE_NULL) releaseEnabled = parser.getValueAsBoolean();
+			else parser.skipChildren();
+		}
+
+		return new FeatureToggle(id, name, enabled, strategies, release, featureEnabled, releaseEnabled);
+	}
+
+	private static Release readRelease(JsonParser parser)
+	throws IOException
+	{
+		String id = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			parser.nextToken();
+
+			if ("id".equals(field)) id = parser.getValueAsString();
+			else parser.skipChildren();
+		}
+
+		return new Release(id);
+	}
+
+	private static Collection<Strategy> readStrategies(JsonParser parser)
+	throws IOException
+	{
+		List<Strategy> strategies = new ArrayList<>();
+
+		while (parser.nextToken() != JsonToken.END_ARRAY)
+		{
+			expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+			String name = null;
+			Map<String, String> parameters = null;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+
+				if ("name".equals(field)) name = parser.getValueAsString();
+				else if ("parameters".equals(field) && value == JsonToken.START_OBJECT) parameters = readParameters(parser);
+				else parser.skipChildren();
+			}
+
+			strategies.add(new Strategy(name, parameters));
+		}
+
+		return strategies;
+	}
+
+	private static Map<String, String> readParameters(JsonParser parser)
+	throws IOException
+	{
+		Map<String, String> parameters = new HashMap<>();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String key = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			if (value.isScalarValue())
+			{
+				parameters.put(key, (value == JsonToken.VALUE_NULL ? null : parser.getText()));
+			}
+			else
+			{
+				parser.skipChildren();
+			}
+		}
+
+		return parameters;
+	}
+
+	private static List<String> readStrings(JsonParser parser)
+	throws IOException
+	{
+		expect(parser.currentToken(), JsonToken.START_ARRAY, parser);
+		List<String> values = new ArrayList<>();
+
+		while (parser.nextToken() != JsonToken.END_ARRAY)
+		{
+			values.add(parser.getValueAsString());
+			parser.skipChildren();
+		}
+
+		return values;
+	}
+
+	private static void expect(JsonToken actual, JsonToken expected, JsonParser parser)
+	throws IOException
+	{
+		if (actual != expected)
+		{
+			throw new IOException("Malformed toggles payload: expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import com.togglize.client.snapshot.TogglesSnapshot;
+
+/**
+ * A pre-resolved reference to a single feature toggle, acquired via TogglesClient.toggle(featureName).
+ * <p/>
+ * The handle remembers the feature's slot in the current toggles snapshot, so repeated evaluations are an array
+ * read rather than a name lookup. When a new snapshot is swapped in, the handle re-resolves its slot on next use.
+ * Handles are thread-safe and intended to be held for the life of the application, for example in a static field.
+ * 
+ * @author tfredrich
+ */
+public class ToggleHandle
+{
+	private static final Binding UNBOUND = new Binding(null, -1);
+
+	private final String featureName;
+	private final TogglesClient client;
+
+	// Immutable, so a racy read sees either the old or the new binding in full.
+	private Binding binding = UNBOUND;
+
+	ToggleHandle(String featureName, TogglesClient client)
+	{
+		super();
+		this.featureName = featureName;
+		this.client = client;
+	}
+
+	public String getFeatureName()
+	{
+		return featureName;
+	}
+
+	/**
+	 * Same as calling TogglesClient.isEnabled(featureName).
+	 * 
+	 * @return true if the feature is enabled for this application in the stage. Otherwise, false.
+	 */
+	public boolean isEnabled()
+	{
+		return isEnabled(null, false);
+	}
+
+	/**
+	 * Same as calling TogglesClient.isEnabled(featureName, defaultValue).
+	 * 
+	 * @param defaultValue boolean value to return if unable to retrieve the setting from the API.
+	 * @return true if the feature is enabled for this application in the stage.
+	 */
+	public boolean isEnabled(boolean defaultValue)
+	{
+		return isEnabled(null, defaultValue);
+	}
+
+	/**
+	 * Same as calling TogglesClient.isEnabled(featureName, context).
+	 * 
+	 * @param context additional contextual values to test against feature-activation strategies. Possibly null.
+	 * @return true if the feature is enabled for this application in the stage, given the context. Otherwise, false.
+	 */
+	public boolean isEnabled(TogglesContext context)
+	{
+		return isEnabled(context, false);
+	}
+
+	/**
+	 * Same as calling TogglesClient.isEnabled(featureName, context, defaultValue).
+	 * 
+	 * @param context additional contextual values to test against feature-activation strategies. Possibly null.
+	 * @param defaultValue boolean value to return if unable to retrieve the setting from the API.
+	 * @return true if the feature is enabled for this application in the stage, given the context.
+	 */
+	public boolean isEnabled(TogglesContext context, boolean defaultValue)
+	{
+		TogglesSnapshot current = client.currentSnapshot();
+
+		if (current == null) return defaultValue;
+
+		Binding bound = binding;
+
+		if (bound.snapshot != current)
+		{
+			bound = new Binding(current, current.slotOf(featureName));
+			binding = bound;
+		}
+
+		return (bound.slot >= 0 ? current.isEnabled(bound.slot, context) : defaultValue);
+	}
+
+	private static class Binding
+	{
+		private final TogglesSnapshot snapshot;
+		private final int slot;
+
+		private Binding(TogglesSnapshot snapshot, int slot)
+		{
+			super();
+			this.snapshot = snapshot;
+			this.slot = slot;
+		}
+	}
+}
@@ -16,34 +16,30 @@
 package com.togglize.client;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.nio.file.Paths;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.ehcache.Cache;
-import org.ehcache.CacheManager;
-import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
-import org.ehcache.config.builders.ResourcePoolsBuilder;
-
-import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.mashape.unirest.http.ObjectMapper;
-import com.mashape.unirest.http.Unirest;
+
 import com.togglize.client.authn.TokenManager;
 import com.togglize.client.authn.TokenManagerException;
 import com.togglize.client.authn.TokenManagerImpl;
-import com.togglize.client.domain.StageToggles;
 import com.togglize.client.event.Events;
 import com.togglize.client.event.LocalEventBus;
+import com.togglize.client.event.ReadyEvent;
+import com.togglize.client.http.AsyncHttpTransport;
+import com.togglize.client.http.HttpTransport;
 import com.togglize.client.metrics.MetricsEventHandler;
-import com.togglize.client.metrics.MetricsPublisher;
+import com.togglize.client.metrics.TransferStats;
+import com.togglize.client.snapshot.Evaluations;
+import com.togglize.client.snapshot.TogglesSnapshot;
 
 /**
  * The Root class for the Toggles Java API Client. It is the controlling class for all feature flag decisions.
@@ -57,19 +53,19 @@ public class TogglesClient
 {
 	private static final Logger LOG = LogManager.getLogger(TogglesClient.class);
 
-	private static final String TOGGLES_CACHE_NAME = "com.togglize.client.cache";
 	private static final String TOGGLES_CLIENT_NAME = "toggles-client-java";
 
 	private Date createdAt = new Date(System.currentTimeMillis());
 	private String version; //TODO: inject pom version number here.
 
 	private TogglesConfiguration config;
+	private HttpTransport transport;
 	private TokenManager tokens;
-	private TogglesFetcher toggles;
-	private MetricsPublisher metrics;
-	private CacheManager cacheManager;
-	private long cacheExpiresAt;
-	private Cache<String, StageToggles> togglesByClientId;
+	private TogglesRefresher refresher;
+	private FileTogglesSource file;
+	private TogglesStream stream;
+	private TransferStats transferStats = new TransferStats();
+	private final CompletableFuture<TogglesClient> ready = new CompletableFuture<>();
 
 	/**
 	 * Create a new feature flag client with default configuration, using the clientId and secret for this application.
@@ -96,17 +92,96 @@ public class TogglesClient
 	{
 		super();
 		this.config = togglesConfiguration;
-		this.tokens = new TokenManagerImpl(togglesConfiguration);
-		this.toggles = new TogglesFetcher(tokens, togglesConfiguration);
-		this.cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
-		this.cacheManager.init();
-		Unirest.setTimeouts(config.getConnectionTimeoutMillis(), config.getSocketTimeoutMillis());
-		configureJacksonObjectMapper();
+		this.transport = new AsyncHttpTransport(togglesConfiguration);
+		this.tokens = new TokenManagerImpl(togglesConfiguration, transport);
+		this.refresher = new TogglesRefresher(newSource(togglesConfiguration), togglesConfiguration);
 		configureEventing(config.getEventPollIntervalMillis());
 
-		if (config.shouldFetchOnStartup())
+		if (config.shouldStartAsync())
+		{
+			// Load from the SnapshotStore (e.g. a slow disk or Redis) off the caller's thread, too.
+			// Fetch on startup even if loading fails outright.
+			CompletableFuture.supplyAsync(refresher::loadSnapshot)
+				.whenComplete((isLoaded, e) -> fetchOnStartupAsync(e == null && isLoaded));
+		}
+		else
+		{
+			boolean isLoaded = refresher.loadSnapshot();
+
+			if (config.shouldFetchOnStartup())
+			{
+				// Serve persisted toggles right away and reconcile them with the remote API in the background,
+				// unless another client on the host does that for us.
+				if (!isLoaded) refresher.refresh();
+				else if (!refresher.isSharedReader()) refresher.refreshAsync();
+			}
+		}
+
+		if (config.getRefreshMode() != RefreshMode.ON_DEMAND)
 		{
-			fetchToggles();
+			refresher.start();
+		}
+
+		if (file != null)
+		{
+			watch(file);
+		}
+		else if (config.getRefreshMode() == RefreshMode.STREAMING)
+		{
+			this.stream = new TogglesStream(tokens, transport, config, refresher);
+			stream.start();
+		}
+
+		// Toggles that arrive later do so on the HTTP worker thread. Complete ready() off it, as a dependent action
+		// that blocks on the client (e.g. calls isEnabled()) would wait on that thread for a response only it can deliver.
+		if (refresher.firstSnapshot().isDone()) onReady();
+		else refresher.firstSnapshot().thenRunAsync(this::onReady);
+	}
+
+	private void fetchOnStartupAsync(boolean isLoaded)
+	{
+		if (config.shouldFetchOnStartup() && (!isLoaded || !refresher.isSharedReader()))
+		{
+			refresher.refreshAsync();
+		}
+	}
+
+	private void onReady()
+	{
+		Events.publish(new ReadyEvent(new Date()));
+		ready.complete(this);
+	}
+
+	/**
+	 * Reads the toggles from the configured toggles file, if any, instead of the remote API.
+	 */
+	private TogglesSource newSource(TogglesConfiguration togglesConfiguration)
+	{
+		if (togglesConfiguration.getTogglesFile() == null)
+		{
+			return new TogglesFetcher(tokens, transport, togglesConfiguration, transferStats);
+		}
+
+		this.file = new FileTogglesSource(Paths.get(togglesConfiguration.getTogglesFile()), togglesConfiguration.getStrategyCompiler());
+		return file;
+	}
+
+	/**
+	 * Swaps in the file's toggles as soon as it changes. If it can't be watched, the toggles are still re-read
+	 * whenever they expire.
+	 */
+	private void watch(FileTogglesSource source)
+	{
+		try
+		{
+			// A refresh already in flight may have read the file before it changed, so read it again once that's done,
+			// even if it failed. An unchanged file matches the current snapshot's ETag and isn't rebuilt. A change
+			// bypasses the refresh backoff, so a good file replacing a bad one is picked up right away.
+			source.watch(() -> refresher.refreshNowAsync().whenComplete((snapshot, e) -> refresher.refreshNowAsync()));
+		}
+		catch (IOException e)
+		{
+			LOG.warn("Unable to watch " + source + " for toggles changes.", e);
 		}
 	}
 
@@ -176,21 +251,133 @@ public class TogglesClient
 	 */
 	public boolean isEnabled(String featureName, TogglesContext context, boolean defaultValue)
 	{
-		try
-		{
-			StageToggles toggles = fetchToggles();
+		TogglesSnapshot current = currentSnapshot();
 
-			if (toggles == null) return defaultValue;
+		if (current == null) return defaultValue;
 
-			return processContext(featureName, toggles, context, defaultValue);
-		}
-		catch (TogglesException e)
+		return processContext(featureName, current, context, defaultValue);
+	}
+
+	/**
+	 * Answer whether this feature is enabled without ever blocking the calling thread, e.g. from an event loop.
+	 * If toggles have already been fetched, the returned stage is already complete. Otherwise, it completes once
+	 * the first fetch from the remote API finishes, on a thread from the common ForkJoinPool (never the client's
+	 * HTTP worker, so dependent actions may block, e.g. on isEnabled()). Dependent actions that must run on the
+	 * caller's event loop should be attached with one of the CompletionStage *Async() methods.
+	 * <p/>
+	 * An expired snapshot is still answered immediately while a refresh happens in the background.
+	 * 
+	 * @param featureName the textual name of the feature.
+	 * @param context additional contextual values to test against feature-activation strategies. Possibly null.
+	 * @param defaultValue boolean value to complete with if unable to retrieve the setting from the API.
+	 * @return a CompletionStage completed with true if the feature is enabled for this application in the stage, given the context.
+	 * Never completes exceptionally.
+	 */
+	public CompletionStage<Boolean> isEnabledAsync(String featureName, TogglesContext context, boolean defaultValue)
+	{
+		return currentSnapshotAsync().thenApply(current -> (current == null ? defaultValue : processContext(featureName, current, context, defaultValue)));
+	}
+
+	/**
+	 * Evaluate every feature in this stage for the context without ever blocking the calling thread.
+	 * See isEnabledAsync() for when the returned stage completes.
+	 * 
+	 * @param context additional contextual values to test against feature-activation strategies. Possibly null.
+	 * @return a CompletionStage completed with the immutable results. Never completes exceptionally.
+	 */
+	public CompletionStage<Evaluations> evaluateAllAsync(TogglesContext context)
+	{
+		return currentSnapshotAsync().thenApply(current -> (current == null ? Evaluations.empty() : current.evaluateAll(context)));
+	}
+
+	/**
+	 * Evaluate every feature in this stage for the context in one pass. This is much cheaper than calling
+	 * isEnabled() for each feature, e.g. for an API gateway that forwards all decisions downstream.
+	 * 
+	 * @param context additional contextual values to test against feature-activation strategies. Possibly null.
+	 * @return the immutable results. If no toggles could be fetched, every lookup on the result answers its default value.
+	 */
+	public Evaluations evaluateAll(TogglesContext context)
+	{
+		TogglesSnapshot current = currentSnapshot();
+
+		if (current == null) return Evaluations.empty();
+
+		return current.evaluateAll(context);
+	}
+
+	/**
+	 * Evaluate one feature for many contexts, e.g. one per record in a batch or stream job. The feature and its
+	 * strategies are resolved once for the whole batch.
+	 * 
+	 * Same as calling evaluateBatch(featureName, contexts, false, null).
+	 * 
+	 * @param featureName the textual name of the feature.
+	 * @param contexts the contexts to evaluate. Never null, but elements may be null.
+	 * @return a BitSet with the bit at each context's index set if the feature is enabled for that context.
+	 */
+	public BitSet evaluateBatch(String featureName, TogglesContext[] contexts)
+	{
+		return evaluateBatch(featureName, contexts, false, null);
+	}
+
+	/**
+	 * Same as calling evaluateBatch(featureName, contexts.toArray(), false, null).
+	 * 
+	 * @param featureName the textual name of the feature.
+	 * @param contexts the contexts to evaluate. Never null, but elements may be null.
+	 * @return a BitSet with the bit at each context's index set if the feature is enabled for that context.
+	 */
+	public BitSet evaluateBatch(String featureName, List<TogglesContext> contexts)
+	{
+		return evaluateBatch(featureName, contexts.toArray(new TogglesContext[contexts.size()]), false, null);
+	}
+
+	/**
+	 * Evaluate one feature for many contexts, splitting large batches across the given ForkJoinPool.
+	 * 
+	 * @param featureName the textual name of the feature.
+	 * @param contexts the contexts to evaluate. Never null, but elements may be null.
+	 * @param defaultValue the result for every context if unable to retrieve the setting from the API.
+	 * @param pool the ForkJoinPool for parallel evaluation (e.g. ForkJoinPool.commonPool()). Null to evaluate on the calling thread.
+	 * @return a BitSet with the bit at each context's index set if the feature is enabled for that context.
+	 */
+	public BitSet evaluateBatch(String featureName, TogglesContext[] contexts, boolean defaultValue, ForkJoinPool pool)
+	{
+		TogglesSnapshot current = currentSnapshot();
+
+		if (current == null)
 		{
-			// TODO log exceptions
-			e.printStackTrace();
+			BitSet results = new BitSet(contexts.length);
+			if (defaultValue) results.set(0, contexts.length);
+			return results;
 		}
 
-		return defaultValue;
+		return current.evaluateBatch(featureName, contexts, defaultValue, pool);
+	}
+
+	/**
+	 * Decode evaluations propagated from another service via Evaluations.toHeaderValue(). Decoding succeeds only
+	 * if this client's current toggles contain the same features as those that were evaluated.
+	 * 
+	 * @param headerValue the encoded evaluations. Possibly null.
+	 * @return the decoded Evaluations, or null if they can't be interpreted against the current toggles.
+	 */
+	public Evaluations decodeEvaluations(String headerValue)
+	{
+		return Evaluations.fromHeaderValue(headerValue, currentSnapshot());
+	}
+
+	/**
+	 * Returns a handle for repeatedly evaluating the named feature. The handle resolves the feature once per
+	 * toggles snapshot instead of once per call, making it the cheapest way to check the same feature many times.
+	 * 
+	 * @param featureName the textual name of the feature.
+	 * @return a ToggleHandle bound to this client. Never null, even if the feature doesn't (yet) exist.
+	 */
+	public ToggleHandle toggle(String featureName)
+	{
+		return new ToggleHandle(featureName, this);
 	}
 
 	public Date getCreatedAt()
@@ -203,103 +390,118 @@ public class TogglesClient
 		return String.format("%s:%s", TOGGLES_CLIENT_NAME, version);
 	}
 
-	private StageToggles fetchToggles()
-	throws TogglesException
+	/**
+	 * Returns a future that completes once the client has toggles to serve, loaded from a SnapshotStore or fetched,
+	 * at which point a ReadyEvent is published. Useful with setShouldStartAsync(), to overlap loading the toggles
+	 * with the rest of application startup. Until then, evaluations wait on the toggles being fetched.
+	 * <p/>
+	 * The future isn't completed exceptionally if fetching fails. Failures are reported as an ErrorEvent and the
+	 * fetch is retried as configured, so wait on it with a timeout.
+	 * <p/>
+	 * Unless the toggles were ready before the constructor returned, the future completes on a thread from the
+	 * common ForkJoinPool, so dependent actions may block (e.g. call isEnabled()).
+	 * 
+	 * @return a future completed with this client. Never null.
+	 */
+	public CompletableFuture<TogglesClient> ready()
 	{
-		if (togglesByClientId == null)
-		{
-			this.togglesByClientId = cacheManager.createCache(TOGGLES_CACHE_NAME,
-				CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class,
-					StageToggles.class,
-					ResourcePoolsBuilder.heap(1))
-				.build());
-		}
+		return ready;
+	}
 
-		StageToggles toggles = togglesByClientId.get(config.getClientId());
+	/**
+	 * Returns the number of bytes this client has exchanged with the remote API, both on the wire and
+	 * decoded, showing the savings from compression.
+	 * 
+	 * @return the transfer statistics for this client. Never null.
+	 */
+	public TransferStats getTransferStats()
+	{
+		return transferStats;
+	}
+
+	/**
+	 * Stop any background activity (e.g. refreshing toggles) performed by this client and release its connections.
+	 * Once shut down, the client continues to answer from the last fetched toggles but no longer contacts the remote API.
+	 */
+	public void shutdown()
+	{
+		if (stream != null) stream.shutdown();
 
-		if (shouldRefresh(toggles))
+		if (file != null)
 		{
-			toggles = refreshCache();
+			try
+			{
+				file.close();
+			}
+			catch (IOException e)
+			{
+				LOG.warn("Unable to stop watching " + file, e);
+			}
 		}
 
-		return toggles;
+		refresher.shutdown();
+		transport.close();
 	}
 
-	private boolean shouldRefresh(StageToggles toggles)
+	/**
+	 * Returns the toggles snapshot to evaluate against, refreshing it first if it has expired and the
+	 * client refreshes on demand.
+	 * 
+	 * @return the current snapshot. Null if no toggles could be fetched.
+	 */
+	TogglesSnapshot currentSnapshot()
 	{
-		return (toggles == null || cacheExpiresAt == 0l || System.currentTimeMillis() > cacheExpiresAt);
+		TogglesSnapshot current = refresher.getSnapshot();
+
+		if (shouldRefresh(current))
+		{
+			try
+			{
+				// Only wait on the fetch if there's nothing to serve in the meantime.
+				current = (current == null ? refresher.refresh() : refresher.refreshIfIdle());
+			}
+			catch (TogglesException e)
+			{
+				// Reported by the refresher. Fall back to whatever was last fetched.
+				current = refresher.getSnapshot();
+			}
+		}
+
+		return current;
 	}
 
-	private StageToggles refreshCache()
-	throws TogglesException
+	/**
+	 * Non-blocking counterpart to currentSnapshot(). An existing snapshot is served as-is, refreshing it in the
+	 * background if it has expired. Only when there is no snapshot at all does the result wait on a fetch.
+	 * 
+	 * @return a future completed with the current snapshot, or null if no toggles could be fetched. Never completed exceptionally.
+	 */
+	private CompletableFuture<TogglesSnapshot> currentSnapshotAsync()
 	{
-		StageToggles allToggles = toggles.fetch();
+		TogglesSnapshot current = refresher.getSnapshot();
 
-		if (allToggles != null)
+		if (current != null)
 		{
-			togglesByClientId.put(config.getClientId(), allToggles);
-			cacheExpiresAt = System.currentTimeMillis() + config.getCacheTtlMillis();
+			if (shouldRefresh(current)) refresher.refreshAsync();
+
+			return CompletableFuture.completedFuture(current);
 		}
 
-		return allToggles;
+		// Joins a fetch already in flight, e.g. from the background refresher. Completes off the HTTP worker thread,
+		// as for ready().
+		return refresher.refreshAsync().handleAsync((snapshot, e) -> (e == null ? snapshot : refresher.getSnapshot()));
 	}
 
-	private boolean processContext(String featureName, StageToggles toggles, TogglesContext context, boolean defaultValue)
+	private boolean shouldRefresh(TogglesSnapshot current)
 	{
-		Boolean enabled = toggles.isFeatureEnabled(featureName);
+		if (config.getRefreshMode() != RefreshMode.ON_DEMAND) return false;
 
-		return (enabled != null ? enabled : defaultValue);
+		return (current == null || current.isExpired(System.currentTimeMillis(), config.getCacheTtlMillis()));
 	}
 
-	private void configureJacksonObjectMapper()
+	private boolean processContext(String featureName, TogglesSnapshot toggles, TogglesContext context, boolean defaultValue)
 	{
-		Unirest.setObjectMapper(new ObjectMapper()
-		{
-			private com.fasterxml.jackson.databind.ObjectMapper jacksonObjectMapper = new com.fasterxml.jackson.databind.ObjectMapper()
-				.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
-	
-				// Ignore additional/unknown properties in a payload.
-				.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
-				
-				// Only serialize populated properties (do no serialize nulls)
-				.setSerializationInclusion(JsonInclude.Include.NON_NULL)
-				
-				// Use fields directly.
-				.setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
-				
-				// Ignore accessor and mutator methods (use fields per above).
-				.setVisibility(PropertyAccessor.GETTER, Visibility.NONE)
-				.setVisibility(PropertyAccessor.SETTER, Visibility.NONE)
-				.setVisibility(PropertyAccessor.IS_GETTER, Visibility.NONE)
-				
-				// Set default ISO 8601 timepoint output format.
-				.setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"));
-
-
-			public <T> T readValue(String value, Class<T> valueType)
-			{
-				try
-				{
-					return jacksonObjectMapper.readValue(value, valueType);
-				}
-				catch (IOException e)
-				{
-					throw new RuntimeException(e);
-				}
-			}
-
-			public String writeValue(Object value)
-			{
-				try
-				{
-					return jacksonObjectMapper.writeValueAsString(value);
-				}
-				catch (JsonProcessingException e)
-				{
-					throw new RuntimeException(e);
-				}
-			}
-		});
+		return toggles.isEnabled(featureName, context, defaultValue);
 	}
 
 	private void configureEventing(long eventPollIntervalMillis)
@@ -15,9 +15,15 @@
 */
 package com.togglize.client;
 
+import java.nio.file.Paths;
+
 import com.togglize.client.event.DefaultEventHandler;
 import com.togglize.client.event.DefaultEventObserver;
 import com.togglize.client.event.EventHandler;
+import com.togglize.client.snapshot.FileSnapshotStore;
+import com.togglize.client.snapshot.SnapshotStore;
+import com.togglize.client.strategy.StrategyCompiler;
+import com.togglize.client.strategy.StrategyFactory;
 
 public class TogglesConfiguration
 {
@@ -25,19 +31,23 @@ public class TogglesConfiguration
 	private static final String DEFAULT_BASE_TOGGLES_URL = "https://api.nifli.com";
 	private static final String TOKEN_PATH = "/token";
 	private static final String TOGGLES_PATH_TEMPLATE = "/stages/%s/features";
+	private static final String STREAM_PATH_TEMPLATE = "/stages/%s/features/stream";
 	private static final String METRICS_PATH_TEMPLATE = "/stages/%s/metrics";
 	private static final int DEFAULT_RETRIES = 5;
 	private static final long DEFAULT_RETRY_DELAY_MILLIS = 30l;
+	private static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = 5000l;
+	private static final long DEFAULT_RETRY_DEADLINE_MILLIS = 30000l;
 	private static final String DEFAULT_STAGE = "development";
 	private static final long DEFAULT_CACHE_TTL_MILLIS = 600000l;
 	private static final long DEFAULT_CONNECTION_TIMEOUT = 10000l;
 	private static final long DEFAULT_SOCKET_TIMEOUT = 60000l;
 	private static final long DEFAULT_METRICS_PUBLISH_INTERVAL = 30l;
 	private static final long DEFAULT_EVENT_POLL_INTERVAL = 0l;
-
-	//TODO: write toggles to JSON file locally (if set).
-	//TODO: read toggles from JSON file on startup (if set).
-	//TODO: read/write toggles from any DB/config plugin (if set).
+	private static final long DEFAULT_MIN_REFRESH_BACKOFF_MILLIS = 1000l;
+	private static final long DEFAULT_MAX_REFRESH_BACKOFF_MILLIS = 300000l;
+	private static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+	private static final long DEFAULT_TOKEN_REFRESH_SKEW_MILLIS = 60000l;
+	private static final long DEFAULT_SHARED_SNAPSHOT_POLL_MILLIS = 1000l;
 
 	private char[] clientId;
 	private char[] clientSecret;
@@ -46,17 +56,33 @@ public class TogglesConfiguration
 	private String baseTogglesUrl = DEFAULT_BASE_TOGGLES_URL;
 	private String tokenEndpoint;			// Computed using baseTokenUrl;
 	private String togglesEndpoint;			// Computed using baseTogglesUrl;
+	private String streamEndpoint;			// Computed using baseTogglesUrl;
 	private String metricsEndpoint;			// Computed using baseTogglesUrl;
 	private int maxRetries = DEFAULT_RETRIES;
 	private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+	private long maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
+	private long retryDeadlineMillis = DEFAULT_RETRY_DEADLINE_MILLIS;
 	private String stage = DEFAULT_STAGE;
 	private long cacheTtlMillis = DEFAULT_CACHE_TTL_MILLIS;
 	private boolean shouldFetchOnStartup = true;
+	private boolean shouldStartAsync = false;
+	private boolean shouldUseDeltaSync = false;
+	private boolean shouldAdaptRefreshInterval = false;
+	private SnapshotStore snapshotStore;
+	private String sharedSnapshotFile;
+	private long sharedSnapshotPollMillis = DEFAULT_SHARED_SNAPSHOT_POLL_MILLIS;
+	private String togglesFile;
+	private RefreshMode refreshMode = RefreshMode.ON_DEMAND;
+	private long minRefreshBackoffMillis = DEFAULT_MIN_REFRESH_BACKOFF_MILLIS;
+	private long maxRefreshBackoffMillis = DEFAULT_MAX_REFRESH_BACKOFF_MILLIS;
+	private long tokenRefreshSkewMillis = DEFAULT_TOKEN_REFRESH_SKEW_MILLIS;
 	private long connectionTimeoutMillis = DEFAULT_CONNECTION_TIMEOUT;
 	private long socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT;
+	private int compressionThresholdBytes = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
 	private long metricsPublishIntervalSeconds = DEFAULT_METRICS_PUBLISH_INTERVAL;
 	private long eventPollIntervalMillis = DEFAULT_EVENT_POLL_INTERVAL;
 	private EventHandler eventHandler = new DefaultEventHandler(new DefaultEventObserver());
+	private StrategyCompiler strategyCompiler = new StrategyCompiler();
 
 	/**
 	 * Create a new feature flag configuration instance using the clientId and secret for this application.
@@ -133,6 +159,117 @@ public class TogglesConfiguration
 		return this;
 	}
 
+	/**
+	 * By default, the TogglesClient constructor loads the toggles (see setShouldFetchOnStartup()) before returning,
+	 * waiting on an access token and the toggles from the remote API. Starting asynchronously, the constructor returns
+	 * immediately and the toggles are loaded in the background, so that the application can carry on starting up.
+	 * TogglesClient.ready() completes, and a ReadyEvent is published, once there are toggles to serve.
+	 * 
+	 * @param value true to load feature toggles in the background. Default is false.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setShouldStartAsync(boolean value)
+	{
+		this.shouldStartAsync = value;
+		return this;
+	}
+
+	/**
+	 * By default, every refresh fetches the complete set of feature toggles for the stage. With delta sync enabled,
+	 * the client sends the version of the toggles it holds and the remote API returns only the features added,
+	 * changed or removed since, which are applied to the cached toggles. If the remote API returns the complete
+	 * set instead (e.g. the version is unknown to it), the client simply replaces its cached toggles.
+	 * 
+	 * @param value true to request deltas when refreshing.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setShouldUseDeltaSync(boolean value)
+	{
+		this.shouldUseDeltaSync = value;
+		return this;
+	}
+
+	/**
+	 * With RefreshMode.BACKGROUND (or STREAMING while disconnected), refresh more often shortly after the toggles
+	 * change and back off to the usual interval while the stage is quiet. See RefreshSchedule.
+	 * 
+	 * @param value true to adapt the background refresh interval to how often the toggles change.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setShouldAdaptRefreshInterval(boolean value)
+	{
+		this.shouldAdaptRefreshInterval = value;
+		return this;
+	}
+
+	/**
+	 * Set a local file to keep a copy of the toggles in. Same as calling setSnapshotStore(new FileSnapshotStore(path)).
+	 * 
+	 * @param path the file path. Its directory must exist. Null to disable (the default).
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setSnapshotFile(String path)
+	{
+		return setSnapshotStore(path != null ? new FileSnapshotStore(Paths.get(path)) : null);
+	}
+
+	/**
+	 * Set a store to keep a copy of the toggles in (e.g. a file, Redis or a database). The toggles are saved, in the
+	 * background, whenever fetched toggles change. On startup, toggles are loaded from the store, if it has any, and
+	 * served immediately while they're reconciled with the remote API in the background. That lets the client start
+	 * with accurate answers even if the remote API is slow or unreachable.
+	 * 
+	 * @param store the SnapshotStore. Null to disable (the default).
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setSnapshotStore(SnapshotStore store)
+	{
+		this.snapshotStore = store;
+		return this;
+	}
+
+	/**
+	 * Set the memory-mapped file through which clients in RefreshMode.SHARED share their toggles. Every client on the
+	 * host using the same client ID and stage should use the same file, and no other.
+	 * 
+	 * @param path the file path. Its directory must exist. Never null in RefreshMode.SHARED.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setSharedSnapshotFile(String path)
+	{
+		this.sharedSnapshotFile = path;
+		return this;
+	}
+
+	/**
+	 * Set how often in milliseconds clients in RefreshMode.SHARED check the shared snapshot file for changes.
+	 * Checking costs a single memory read, unless the toggles have changed.
+	 * 
+	 * @param sharedSnapshotPollMillis a long value greater-than zero. Default is 1 second.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setSharedSnapshotPollMillis(long sharedSnapshotPollMillis)
+	{
+		assert(sharedSnapshotPollMillis > 0l);
+		this.sharedSnapshotPollMillis = sharedSnapshotPollMillis;
+		return this;
+	}
+
+	/**
+	 * Set a local file to read the toggles from instead of the remote API, e.g. one mounted from a ConfigMap or pushed
+	 * by a deployment tool. The file may hold a toggles payload as returned by the remote API, a snapshot written by a
+	 * FileSnapshotStore, or a BinarySnapshot. The file is watched, and the client swaps in the new toggles as soon as
+	 * it's replaced, without polling. Write the file atomically (e.g. write a temporary file and rename it).
+	 * 
+	 * @param path the file path. Its directory must exist. Null to use the remote API (the default).
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setTogglesFile(String path)
+	{
+		this.togglesFile = path;
+		return this;
+	}
+
 	/**
 	 * Set the length of time in milliseconds that the cached feature flag data is considered active.
 	 * Note that this TTL only causes the client to request an update instead of deleting the cache values.
@@ -148,6 +285,31 @@ public class TogglesConfiguration
 		return this;
 	}
 
+	/**
+	 * Set how the client keeps its cached feature toggles current. The default is RefreshMode.ON_DEMAND, where the
+	 * first isEnabled() call after the cache TTL lapses fetches the toggles on the calling thread.
+	 * 
+	 * With RefreshMode.BACKGROUND, a dedicated thread refreshes the toggles before the cache TTL lapses and
+	 * isEnabled() never performs network I/O, always answering from the last successfully-fetched toggles.
+	 * Refreshes are randomly spread across the TTL, so clients started together don't refresh together.
+	 * 
+	 * With RefreshMode.STREAMING, the remote API pushes changes over a long-lived connection as they happen, so
+	 * changes (e.g. kill switches) take effect within seconds instead of after the cache TTL. Background polling
+	 * takes over whenever the stream is disconnected.
+	 * 
+	 * With RefreshMode.SHARED, the clients on a host that share the same file (see setSharedSnapshotFile()) elect
+	 * one of them to refresh the toggles in the background, and the rest read the toggles it shares.
+	 * 
+	 * @param refreshMode the desired refresh mode. Never null.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setRefreshMode(RefreshMode refreshMode)
+	{
+		assert(refreshMode != null);
+		this.refreshMode = refreshMode;
+		return this;
+	}
+
 	/**
 	 * Set the maximum number of retries the client will attempt retry-able requests before considering the request a failure.
 	 * 
@@ -162,8 +324,8 @@ public class TogglesConfiguration
 	}
 
 	/**
-	 * Set the initial retry delay in milliseconds. This value is used for the first delay before retry.
-	 * Subsequent delay values (for this request) will be multiples of this value.
+	 * Set the base retry delay in milliseconds. Every delay before a retry is at least this long. Subsequent delay values
+	 * (for this request) grow at random up to three times the previous delay, capped by the maximum retry delay.
 	 * 
 	 * @param retryDelayMillis a long value greater-than or equal-to zero.
 	 * @return this TogglesConfiguration instance for method chaining.
@@ -175,6 +337,91 @@ public class TogglesConfiguration
 		return this;
 	}
 
+	/**
+	 * Set the longest delay in milliseconds before retrying a request.
+	 * 
+	 * @param maxRetryDelayMillis a long value greater-than zero. Default is 5 seconds.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setMaxRetryDelayMillis(long maxRetryDelayMillis)
+	{
+		assert(maxRetryDelayMillis > 0l);
+		this.maxRetryDelayMillis = maxRetryDelayMillis;
+		return this;
+	}
+
+	/**
+	 * Set how long in milliseconds a request may keep being retried, from its first attempt. No retry is attempted
+	 * that would start after this deadline, even if the maximum number of retries hasn't been reached.
+	 * 
+	 * @param retryDeadlineMillis a long value greater-than or equal-to zero. Default is 30 seconds.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setRetryDeadlineMillis(long retryDeadlineMillis)
+	{
+		assert(retryDeadlineMillis >= 0l);
+		this.retryDeadlineMillis = retryDeadlineMillis;
+		return this;
+	}
+
+	/**
+	 * Set the shortest time in milliseconds to wait before refreshing again after a failed refresh. Each consecutive
+	 * failure doubles the wait (with random jitter), up to the maximum refresh backoff. While waiting, the client
+	 * answers from the last fetched toggles, or the default value, without contacting the remote API.
+	 * 
+	 * @param minRefreshBackoffMillis a long value greater-than zero. Default is 1 second.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setMinRefreshBackoffMillis(long minRefreshBackoffMillis)
+	{
+		assert(minRefreshBackoffMillis > 0l);
+		this.minRefreshBackoffMillis = minRefreshBackoffMillis;
+		return this;
+	}
+
+	/**
+	 * Set the longest time in milliseconds to wait before refreshing again after consecutive failed refreshes.
+	 * 
+	 * @param maxRefreshBackoffMillis a long value greater-than zero. Default is 5 minutes.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setMaxRefreshBackoffMillis(long maxRefreshBackoffMillis)
+	{
+		assert(maxRefreshBackoffMillis > 0l);
+		this.maxRefreshBackoffMillis = maxRefreshBackoffMillis;
+		return this;
+	}
+
+	/**
+	 * Set how long in milliseconds before an access token expires to request its replacement. Tokens that last no
+	 * longer than this are replaced half-way through their lifetime instead.
+	 * 
+	 * @param tokenRefreshSkewMillis a long value greater-than or equal-to zero. Default is 1 minute.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setTokenRefreshSkewMillis(long tokenRefreshSkewMillis)
+	{
+		assert(tokenRefreshSkewMillis >= 0l);
+		this.tokenRefreshSkewMillis = tokenRefreshSkewMillis;
+		return this;
+	}
+
+	/**
+	 * Register a custom feature-activation strategy. Strategies of this name on a feature toggle are compiled
+	 * by the factory whenever the toggles are fetched. Registering a built-in strategy name replaces it.
+	 * 
+	 * @param name the strategy name, as defined in the Nifli console. Never null.
+	 * @param factory creates an evaluator from the strategy parameters. Never null.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration registerStrategy(String name, StrategyFactory factory)
+	{
+		assert(name != null);
+		assert(factory != null);
+		strategyCompiler.register(name, factory);
+		return this;
+	}
+
 	public TogglesConfiguration setConnectionTimeoutMillis(long connectionTimeoutMillis)
 	{
 		assert(connectionTimeoutMillis >= 0l);
@@ -189,6 +436,20 @@ public class TogglesConfiguration
 		return this;
 	}
 
+	/**
+	 * Set the size, in bytes, at or above which request bodies (e.g. metrics uploads) are gzip-compressed.
+	 * Smaller bodies are sent as-is, as compressing them costs more than it saves.
+	 * 
+	 * @param compressionThresholdBytes a value greater-than or equal-to zero. Zero compresses every body.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setCompressionThresholdBytes(int compressionThresholdBytes)
+	{
+		assert(compressionThresholdBytes >= 0);
+		this.compressionThresholdBytes = compressionThresholdBytes;
+		return this;
+	}
+
 	/**
 	 * Set the stage (e.g. development, test, production) that this client is working against.
 	 * The default value is 'development'.
@@ -224,6 +485,11 @@ public class TogglesConfiguration
 		return togglesEndpoint;
 	}
 
+	public String getStreamEndpoint()
+	{
+		return streamEndpoint;
+	}
+
 	public String getMetricsEndpoint()
 	{
 		return metricsEndpoint;
@@ -239,6 +505,21 @@ public class TogglesConfiguration
 		return retryDelayMillis;
 	}
 
+	public long getMaxRetryDelayMillis()
+	{
+		return maxRetryDelayMillis;
+	}
+
+	public long getRetryDeadlineMillis()
+	{
+		return retryDeadlineMillis;
+	}
+
+	public long getTokenRefreshSkewMillis()
+	{
+		return tokenRefreshSkewMillis;
+	}
+
 	public String getStage()
 	{
 		return stage;
@@ -265,6 +546,56 @@ public class TogglesConfiguration
 		return shouldFetchOnStartup;
 	}
 
+	public boolean shouldStartAsync()
+	{
+		return shouldStartAsync;
+	}
+
+	public boolean shouldUseDeltaSync()
+	{
+		return shouldUseDeltaSync;
+	}
+
+	public boolean shouldAdaptRefreshInterval()
+	{
+		return shouldAdaptRefreshInterval;
+	}
+
+	public SnapshotStore getSnapshotStore()
+	{
+		return snapshotStore;
+	}
+
+	public String getSharedSnapshotFile()
+	{
+		return sharedSnapshotFile;
+	}
+
+	public long getSharedSnapshotPollMillis()
+	{
+		return sharedSnapshotPollMillis;
+	}
+
+	public String getTogglesFile()
+	{
+		return togglesFile;
+	}
+
+	public RefreshMode getRefreshMode()
+	{
+		return refreshMode;
+	}
+
+	public long getMinRefreshBackoffMillis()
+	{
+		return minRefreshBackoffMillis;
+	}
+
+	public long getMaxRefreshBackoffMillis()
+	{
+		return maxRefreshBackoffMillis;
+	}
+
 	public long getConnectionTimeoutMillis()
 	{
 		return connectionTimeoutMillis;
@@ -275,6 +606,11 @@ public class TogglesConfiguration
 		return socketTimeoutMillis;
 	}
 
+	public int getCompressionThresholdBytes()
+	{
+		return compressionThresholdBytes;
+	}
+
 	private void setClientId(String clientId)
 	{
 		assert(clientId != null);
@@ -294,6 +630,7 @@ public class TogglesConfiguration
 	{
 		this.tokenEndpoint = baseTokenUrl + TOKEN_PATH;
 		this.togglesEndpoint = String.format(baseTogglesUrl + TOGGLES_PATH_TEMPLATE, getStage());
+		this.streamEndpoint = String.format(baseTogglesUrl + STREAM_PATH_TEMPLATE, getStage());
 		this.metricsEndpoint = String.format(baseTogglesUrl + METRICS_PATH_TEMPLATE, getStage());
 	}
 
@@ -312,9 +649,28 @@ public class TogglesConfiguration
 		this.metricsPublishIntervalSeconds = metricsPublishIntervalSeconds;
 	}
 
+	/**
+	 * Set the handler that receives the client's events (e.g. ReadyEvent, FetchedEvent and ErrorEvent). The default
+	 * logs them via a DefaultEventObserver. Extend AbstractEventObserver to handle only some of them.
+	 * 
+	 * @param eventHandler an EventHandler. Never null.
+	 * @return this TogglesConfiguration instance for method chaining.
+	 */
+	public TogglesConfiguration setEventHandler(EventHandler eventHandler)
+	{
+		assert(eventHandler != null);
+		this.eventHandler = eventHandler;
+		return this;
+	}
+
 	public EventHandler getEventHandler()
 	{
 		return eventHandler;
 	}
 
+	public StrategyCompiler getStrategyCompiler()
+	{
+		return strategyCompiler;
+	}
+
 }
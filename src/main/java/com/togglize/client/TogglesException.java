@@ -33,4 +33,9 @@ extends Exception
 	{
 		super(message);
 	}
+
+	public TogglesException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
 }
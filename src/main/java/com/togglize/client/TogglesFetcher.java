@@ -1,91 +1,209 @@
 package com.togglize.client;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.stream.Collectors;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.URIBuilder;
 
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
 import com.togglize.client.authn.TokenManager;
 import com.togglize.client.domain.StageToggles;
-import com.togglize.client.event.ErrorEvent;
 import com.togglize.client.event.Events;
 import com.togglize.client.event.FetchedEvent;
+import com.togglize.client.http.HttpTransport;
+import com.togglize.client.http.RetryPolicy;
+import com.togglize.client.http.TransportRequest;
+import com.togglize.client.http.TransportResponse;
+import com.togglize.client.metrics.TransferStats;
+import com.togglize.client.snapshot.TogglesSnapshot;
+import com.togglize.client.strategy.StrategyCompiler;
 
+/**
+ * Fetches the toggles for a stage from the remote API over the client's HttpTransport, without blocking the caller
+ * via fetchAsync().
+ * <p/>
+ * Responses are requested gzip-compressed and are decompressed as they are parsed, so the decompressed payload is
+ * never buffered in full. The body as received is, though: the HttpTransport reads it in full before the parse
+ * starts, and its length is what's recorded against the decoded size in TransferStats.
+ * 
+ * @author tfredrich
+ */
 public class TogglesFetcher
+implements TogglesSource
 {
+	private static final String SINCE_PARAMETER = "since";
+	private static final String GZIP = "gzip";
+
 	private TokenManager tokens;
+	private HttpTransport transport;
+	private RetryPolicy retries;
 	private TogglesConfiguration config;
+	private TransferStats stats;
 
-	public TogglesFetcher(TokenManager tokens, TogglesConfiguration config)
+	public TogglesFetcher(TokenManager tokens, HttpTransport transport, TogglesConfiguration config, TransferStats stats)
 	{
 		super();
 		this.tokens = tokens;
+		this.transport = transport;
+		this.retries = new RetryPolicy(config);
 		this.config = config;
+		this.stats = stats;
 	}
 
-	public StageToggles fetch()
+	/**
+	 * Fetches the toggles from the remote API, waiting for the result. See fetchAsync().
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a new snapshot, or the current snapshot if the toggles haven't changed.
+	 * @throws TogglesException if the remote API returns an error, including after all retries.
+	 */
+	@Override
+	public TogglesSnapshot fetch(TogglesSnapshot current)
 	throws TogglesException
 	{
-		int retries = config.getMaxRetries();
-		HttpResponse<StageToggles> response = null;
-
 		try
 		{
-			while (retries-- >= 0)
-			{
-				response = Unirest.get(config.getTogglesEndpoint())
-					.header(HttpHeaders.AUTHORIZATION, tokens.getAccessToken())
-				    .header("accept", "application/json")
-				    .header("Content-Type", "application/json")
-					.asObject(StageToggles.class);
-	
-				if (response.getStatus() == 401) // assume needs a token refresh
+			return fetchAsync(current).get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new TogglesException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof TogglesException) throw (TogglesException) e.getCause();
+
+			throw new TogglesException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+		}
+	}
+
+	/**
+	 * Fetches the toggles from the remote API, retrying transient failures according to the RetryPolicy. A 401 acquires a
+	 * new access token before trying again, up to the configured number of retries, after which it's an error. If a current snapshot is given, the request is made conditional
+	 * on the ETag and Last-Modified validators it was fetched with. When the remote API answers '304 Not Modified',
+	 * the current snapshot is returned with its freshness extended, without parsing a response body.
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a future completed with a new snapshot, or the current snapshot if the toggles haven't changed.
+	 * Completed exceptionally with a TogglesException if the remote API returns an error, including after all retries.
+	 */
+	@Override
+	public CompletableFuture<TogglesSnapshot> fetchAsync(TogglesSnapshot current)
+	{
+		return fetchAsync(current, config.getMaxRetries());
+	}
+
+	private CompletableFuture<TogglesSnapshot> fetchAsync(TogglesSnapshot current, int authRetries)
+	{
+		return tokens.getAccessTokenAsync()
+			.thenCompose(token -> retries.execute(transport, () -> transport.send(newRequest(token, current))))
+			.thenCompose(response -> {
+				int status = response.getStatus();
+
+				if (status == 401 && authRetries > 0) // assume needs a token refresh
 				{
-					tokens.newAccessToken();
+					return tokens.newAccessTokenAsync().thenCompose(token -> fetchAsync(current, authRetries - 1));
 				}
-				else if (isSuccessful(response))
+				else if (status == HttpStatus.SC_NOT_MODIFIED && current != null)
 				{
-					StageToggles allToggles = response.getBody();
-					Events.publish(new FetchedEvent(allToggles));
-					return allToggles;
+					return CompletableFuture.completedFuture(current.withFetchedAt(System.currentTimeMillis()));
 				}
-				else
+				else if (response.isSuccessful())
 				{
-					throwException(response);
+					StageToggles allToggles = read(response);
+					TogglesSnapshot snapshot = newSnapshot(allToggles, current, response.getHeader(HttpHeaders.ETAG), response.getHeader(HttpHeaders.LAST_MODIFIED), config.getStrategyCompiler());
+					Events.publish(new FetchedEvent(allToggles));
+					return CompletableFuture.completedFuture(snapshot);
 				}
-			}
-		}
-		catch (UnirestException e)
+
+				throw new CompletionException(new TogglesFetcherException(status, response.getBodyAsString()));
+			});
+	}
+
+	private TransportRequest newRequest(String token, TogglesSnapshot current)
+	{
+		TransportRequest request = TransportRequest.get(togglesUri(current))
+			.header(HttpHeaders.AUTHORIZATION, token)
+			.header(HttpHeaders.ACCEPT, "application/json")
+			.header(HttpHeaders.ACCEPT_ENCODING, GZIP);
+
+		if (current != null)
 		{
-			Events.publish(new ErrorEvent(e));
-			throw new TogglesException(e);
+			request.header(HttpHeaders.IF_NONE_MATCH, current.getEtag())
+				.header(HttpHeaders.IF_MODIFIED_SINCE, current.getLastModified());
 		}
 
-		return null;
+		return request;
 	}
 
-	private boolean isSuccessful(HttpResponse<StageToggles> response)
+	/**
+	 * When delta sync is enabled, asks the remote API for only the changes since the current snapshot's version.
+	 * A remote API that doesn't support deltas ignores the parameter and returns the full set of toggles.
+	 */
+	private String togglesUri(TogglesSnapshot current)
 	{
-		return response.getStatus() >= 200 && response.getStatus() <= 299;
+		if (!config.shouldUseDeltaSync() || current == null || current.getVersion() == null)
+		{
+			return config.getTogglesEndpoint();
+		}
+
+		try
+		{
+			return new URIBuilder(config.getTogglesEndpoint())
+				.addParameter(SINCE_PARAMETER, current.getVersion())
+				.build()
+				.toString();
+		}
+		catch (URISyntaxException e)
+		{
+			throw new CompletionException(new TogglesException(e));
+		}
 	}
 
-	private void throwException(HttpResponse<StageToggles> response)
-	throws TogglesException
+	/**
+	 * Parses the response body, decompressing it on the fly if the remote API gzipped it.
+	 */
+	private StageToggles read(TransportResponse response)
 	{
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(response.getRawBody())))
+		boolean isGzipped = GZIP.equalsIgnoreCase(String.valueOf(response.getHeader(HttpHeaders.CONTENT_ENCODING)).trim());
+
+		try (CountingInputStream decoded = new CountingInputStream(isGzipped ? new GZIPInputStream(response.getBodyAsStream()) : response.getBodyAsStream()))
 		{
-			TogglesFetcherException e = new TogglesFetcherException(response.getStatus(), br.lines().collect(Collectors.joining(System.lineSeparator())));
-			Events.publish(new ErrorEvent(e));
-			throw e;
+			StageToggles toggles = StageTogglesReader.read(decoded);
+			stats.onReceived(response.getBody().length, decoded.getCount());
+			return toggles;
 		}
 		catch (IOException e)
 		{
-			throw new TogglesException(e);
+			throw new CompletionException(new TogglesException(e));
+		}
+	}
+
+	/**
+	 * Builds the snapshot for toggles received from the remote API, applying them to the current snapshot if they're a delta.
+	 * 
+	 * @param toggles the complete stage toggles, or a delta.
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @param etag the ETag response header. Possibly null.
+	 * @param lastModified the Last-Modified response header. Possibly null.
+	 * @param compiler compiles the feature-activation strategies of the toggles.
+	 * @return a new snapshot.
+	 */
+	static TogglesSnapshot newSnapshot(StageToggles toggles, TogglesSnapshot current, String etag, String lastModified, StrategyCompiler compiler)
+	{
+		long now = System.currentTimeMillis();
+
+		if (toggles.isDelta() && current != null)
+		{
+			return current.applyDelta(toggles, now, etag, lastModified, compiler);
 		}
+
+		return new TogglesSnapshot(toggles, now, etag, lastModified, compiler);
 	}
 }
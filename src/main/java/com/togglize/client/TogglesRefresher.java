@@ -0,0 +1,589 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.event.ErrorEvent;
+import com.togglize.client.event.Events;
+import com.togglize.client.event.FetchedEvent;
+import com.togglize.client.snapshot.SharedSnapshotFile;
+import com.togglize.client.snapshot.SnapshotStore;
+import com.togglize.client.snapshot.WriteBehindSnapshotStore;
+import com.togglize.client.snapshot.TogglesSnapshot;
+
+/**
+ * Owns the current TogglesSnapshot and keeps it up to date, either when asked to via refresh() or, once
+ * start() is called, on a dedicated background thread ahead of the cache TTL, as spread out by a RefreshSchedule.
+ * 
+ * Refreshes are coalesced: at most one fetch is in flight at a time. Concurrent callers either share the
+ * result of that fetch or, via refreshIfIdle(), keep reading the current snapshot while it completes.
+ * 
+ * If a SnapshotStore is configured, changed toggles are saved to it in the background, and loadSnapshot() reads
+ * them back on startup.
+ * 
+ * In RefreshMode.SHARED, only the refresher holding the SharedSnapshotFile's lock refreshes from the remote API,
+ * and it shares every change through the file. The background thread of every other refresher polls the file instead.
+ * 
+ * Failed refreshes open a CircuitBreaker. While it is open, refresh requests return the current snapshot
+ * immediately without contacting the remote API, and the failure is reported once as an ErrorEvent rather
+ * than on every attempt.
+ * 
+ * @author tfredrich
+ */
+public class TogglesRefresher
+{
+	private static final Logger LOG = LogManager.getLogger(TogglesRefresher.class);
+
+	private static final String THREAD_NAME = "toggles-refresher";
+
+	// Background refreshes happen at this fraction of the cache TTL, leaving the remainder to absorb a slow fetch.
+	private static final double REFRESH_AHEAD_RATIO = 0.8;
+
+	// Changes within this time of each other are saved to the SnapshotStore as one.
+	private static final long SNAPSHOT_WRITE_DELAY_MILLIS = 500l;
+
+	private TogglesConfiguration config;
+	private TogglesSource source;
+	private ScheduledExecutorService scheduler;
+	private CircuitBreaker breaker;
+	private RefreshSchedule schedule;
+	private WriteBehindSnapshotStore store;
+	private volatile SharedSnapshotFile shared;
+	private final AtomicReference<CompletableFuture<TogglesSnapshot>> inFlight = new AtomicReference<>();
+
+	// Completed with the first snapshot, whether loaded or fetched.
+	private final CompletableFuture<TogglesSnapshot> firstSnapshot = new CompletableFuture<>();
+
+	// The current toggles, swapped as a whole on refresh. Readers only ever dereference it once.
+	private volatile TogglesSnapshot snapshot;
+
+	// Serializes swaps between fetch completions, the toggles stream and the shared snapshot file.
+	private final Object swapLock = new Object();
+
+	// While the toggles stream is connected, background polling is suspended.
+	private volatile boolean isStreaming;
+
+	public TogglesRefresher(TogglesSource source, TogglesConfiguration config)
+	{
+		super();
+		this.source = source;
+		this.config = config;
+		this.breaker = new CircuitBreaker(config.getMinRefreshBackoffMillis(), config.getMaxRefreshBackoffMillis());
+		this.schedule = new RefreshSchedule((long) (config.getCacheTtlMillis() * REFRESH_AHEAD_RATIO), config.shouldAdaptRefreshInterval());
+		this.store = (config.getSnapshotStore() != null ? new WriteBehindSnapshotStore(config.getSnapshotStore(), SNAPSHOT_WRITE_DELAY_MILLIS) : null);
+		this.shared = openShared(config);
+	}
+
+	/**
+	 * Returns the most-recently fetched toggles without blocking.
+	 * 
+	 * @return the current snapshot. Null if the toggles have never been successfully fetched.
+	 */
+	public TogglesSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * Returns a future completed with the first snapshot this refresher serves, whether loaded by loadSnapshot() or
+	 * fetched. Never completed exceptionally: failed fetches are reported as usual, and the future completes
+	 * once a later refresh succeeds.
+	 * 
+	 * @return a future of the first snapshot. Never null.
+	 */
+	public CompletableFuture<TogglesSnapshot> firstSnapshot()
+	{
+		return firstSnapshot;
+	}
+
+	private static SharedSnapshotFile openShared(TogglesConfiguration config)
+	{
+		if (config.getRefreshMode() != RefreshMode.SHARED) return null;
+
+		if (config.getSharedSnapshotFile() == null)
+		{
+			LOG.warn("No shared snapshot file configured. Refreshing as for RefreshMode.BACKGROUND.");
+			return null;
+		}
+
+		try
+		{
+			return new SharedSnapshotFile(Paths.get(config.getSharedSnapshotFile()));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.warn("Unable to open " + config.getSharedSnapshotFile() + ". Refreshing as for RefreshMode.BACKGROUND.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Makes sure there are toggles to serve without contacting the remote API, if at all possible. Falls back from
+	 * toggles already in memory, to the shared snapshot file, to the SnapshotStore. Nothing is fetched. A missing or
+	 * unreadable store is not an error: the client simply starts without toggles, as usual.
+	 * 
+	 * @return true if there are toggles to serve.
+	 */
+	public boolean loadSnapshot()
+	{
+		if (snapshot != null || readShared()) return true;
+
+		if (store == null) return false;
+
+		try
+		{
+			TogglesSnapshot loaded = store.load(config.getStrategyCompiler());
+
+			if (loaded == null) return false;
+
+			synchronized (swapLock)
+			{
+				// Fetched while the store was being read (e.g. by the background refresher), so newer than what's stored.
+				if (snapshot != null) return true;
+
+				swap(loaded);
+			}
+
+			LOG.info("Loaded " + loaded.size() + " toggles from " + config.getSnapshotStore());
+			return true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.warn("Unable to load toggles from " + config.getSnapshotStore() + ". Ignoring it.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches the toggles from the remote API on the calling thread and publishes them as the current snapshot.
+	 * If another thread is already fetching, waits for and returns the result of that fetch instead.
+	 * If the remote API is failing and the refresh backoff hasn't lapsed, returns the current snapshot without fetching.
+	 * 
+	 * @return the current snapshot. Possibly null if no toggles have ever been fetched.
+	 * @throws TogglesException if the fetch fails.
+	 */
+	public TogglesSnapshot refresh()
+	throws TogglesException
+	{
+		return refresh(true);
+	}
+
+	/**
+	 * Same as refresh(), except that if another thread is already fetching, returns the current snapshot
+	 * immediately rather than waiting for that fetch to complete.
+	 * 
+	 * @return the current snapshot. Possibly null if no toggles have ever been fetched.
+	 * @throws TogglesException if the fetch fails.
+	 */
+	public TogglesSnapshot refreshIfIdle()
+	throws TogglesException
+	{
+		return refresh(false);
+	}
+
+	private TogglesSnapshot refresh(boolean shouldWait)
+	throws TogglesException
+	{
+		if (!breaker.allowRequest(System.currentTimeMillis())) return snapshot;
+
+		CompletableFuture<TogglesSnapshot> pending = new CompletableFuture<>();
+
+		while (!inFlight.compareAndSet(null, pending))
+		{
+			CompletableFuture<TogglesSnapshot> existing = inFlight.get();
+
+			if (existing != null)
+			{
+				return (shouldWait ? await(existing) : snapshot);
+			}
+		}
+
+		try
+		{
+			TogglesSnapshot result = fetch();
+			pending.complete(result);
+			return result;
+		}
+		catch (TogglesException | RuntimeException e)
+		{
+			pending.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			inFlight.set(null);
+		}
+	}
+
+	/**
+	 * Fetches the toggles from the remote API without blocking the calling thread. If a fetch is already in flight,
+	 * whether started by refresh() or refreshAsync(), the returned future completes with the result of that fetch.
+	 * If the remote API is failing and the refresh backoff hasn't lapsed, the returned future is already completed
+	 * with the current snapshot.
+	 * 
+	 * @return a future completed with the current snapshot (possibly null if no toggles have ever been fetched), or
+	 * completed exceptionally if the fetch fails.
+	 */
+	public CompletableFuture<TogglesSnapshot> refreshAsync()
+	{
+		if (!breaker.allowRequest(System.currentTimeMillis())) return CompletableFuture.completedFuture(snapshot);
+
+		return refreshNowAsync();
+	}
+
+	/**
+	 * Same as refreshAsync(), except that the refresh backoff is ignored. For when the source is known to have
+	 * changed (e.g. a watched toggles file was replaced), so a fix isn't held up by earlier failures.
+	 * 
+	 * @return a future completed as for refreshAsync().
+	 */
+	public CompletableFuture<TogglesSnapshot> refreshNowAsync()
+	{
+		CompletableFuture<TogglesSnapshot> pending = new CompletableFuture<>();
+
+		while (!inFlight.compareAndSet(null, pending))
+		{
+			CompletableFuture<TogglesSnapshot> existing = inFlight.get();
+
+			if (existing != null) return existing;
+		}
+
+		TogglesSnapshot base = snapshot;
+		CompletableFuture<TogglesSnapshot> fetched;
+
+		try
+		{
+			fetched = source.fetchAsync(base);
+		}
+		catch (RuntimeException e)
+		{
+			fetched = new CompletableFuture<>();
+			fetched.completeExceptionally(e);
+		}
+
+		fetched.whenComplete((result, e) -> {
+			try
+			{
+				if (e != null)
+				{
+					Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+					onFailure(cause instanceof Exception ? (Exception) cause : new TogglesException(String.valueOf(cause)));
+					pending.completeExceptionally(cause);
+				}
+				else
+				{
+					pending.complete(onFetched(base, result));
+				}
+			}
+			finally
+			{
+				inFlight.set(null);
+			}
+		});
+
+		return pending;
+	}
+
+	private TogglesSnapshot fetch()
+	throws TogglesException
+	{
+		TogglesSnapshot base = snapshot;
+		TogglesSnapshot fetched;
+
+		try
+		{
+			fetched = source.fetch(base);
+		}
+		catch (TogglesException | RuntimeException e)
+		{
+			onFailure(e);
+			throw e;
+		}
+
+		return onFetched(base, fetched);
+	}
+
+	private TogglesSnapshot onFetched(TogglesSnapshot base, TogglesSnapshot fetched)
+	{
+		if (breaker.onSuccess())
+		{
+			LOG.info("Toggles API recovered. Resuming normal refreshes.");
+		}
+
+		if (fetched != null)
+		{
+			publish(base, fetched);
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Swaps in toggles built on the given base snapshot, unless the current snapshot has moved on from that base
+	 * in the meantime (e.g. toggles were pushed while a fetch was in flight), in which case they're dropped.
+	 */
+	private void publish(TogglesSnapshot base, TogglesSnapshot fetched)
+	{
+		synchronized (swapLock)
+		{
+			TogglesSnapshot previous = snapshot;
+
+			if (previous != base)
+			{
+				LOG.debug("Dropping toggles fetched before the current toggles were published.");
+				return;
+			}
+
+			boolean isChanged = !fetched.hasSameToggles(previous);
+			schedule.onRefreshed(previous != null && isChanged);
+			swap(fetched);
+
+			if (isChanged)
+			{
+				persist(fetched);
+				share(fetched);
+			}
+		}
+	}
+
+	private void swap(TogglesSnapshot toggles)
+	{
+		this.snapshot = toggles;
+		firstSnapshot.complete(toggles);
+	}
+
+	private void share(TogglesSnapshot toggles)
+	{
+		SharedSnapshotFile current = shared;
+
+		if (current == null || !current.tryAcquireWriter()) return;
+
+		try
+		{
+			current.write(toggles);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.warn("Unable to share toggles via " + current.getPath(), e);
+		}
+	}
+
+	/**
+	 * Publishes the toggles from the shared snapshot file, if they've changed since last read, as the current snapshot.
+	 * 
+	 * @return true if toggles were read.
+	 */
+	private boolean readShared()
+	{
+		SharedSnapshotFile current = shared;
+
+		if (current == null) return false;
+
+		try
+		{
+			TogglesSnapshot read = current.readIfChanged(config.getStrategyCompiler());
+
+			if (read == null) return false;
+
+			synchronized (swapLock)
+			{
+				schedule.onRefreshed(snapshot != null && !read.hasSameToggles(snapshot));
+				swap(read);
+			}
+
+			return true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.warn("Unable to read shared toggles from " + current.getPath(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if this refresher reads its toggles from the shared snapshot file, rather than the remote API.
+	 */
+	boolean isSharedReader()
+	{
+		SharedSnapshotFile current = shared;
+		return (current != null && !current.tryAcquireWriter());
+	}
+
+	private void persist(TogglesSnapshot toggles)
+	{
+		if (store != null) store.save(toggles);
+	}
+
+	/**
+	 * Publishes toggles pushed by the remote API (e.g. over the toggles stream) as the current snapshot. A delta
+	 * pushed before any toggles are held has nothing to apply to, so the complete toggles are fetched instead.
+	 * 
+	 * @param toggles the complete stage toggles, or a delta to apply to the current snapshot.
+	 */
+	void onPushed(StageToggles toggles)
+	{
+		synchronized (swapLock)
+		{
+			TogglesSnapshot base = snapshot;
+
+			if (!toggles.isDelta() || base != null)
+			{
+				publish(base, TogglesFetcher.newSnapshot(toggles, base, null, null, config.getStrategyCompiler()));
+				Events.publish(new FetchedEvent(toggles));
+				return;
+			}
+		}
+
+		LOG.debug("Ignoring a pushed delta with no toggles to apply it to. Fetching the complete toggles instead.");
+		refreshAsync();
+	}
+
+	/**
+	 * Suspends (or resumes) background polling while the remote API pushes changes.
+	 * 
+	 * @param value true while the toggles stream is connected.
+	 */
+	void setStreaming(boolean value)
+	{
+		this.isStreaming = value;
+	}
+
+	private void onFailure(Exception e)
+	{
+		if (breaker.onFailure(System.currentTimeMillis()))
+		{
+			Events.publish(new ErrorEvent(e));
+		}
+		else
+		{
+			LOG.debug("Toggles refresh failed again. Backing off until " + breaker.getRetryAt(), e);
+		}
+	}
+
+	private TogglesSnapshot await(CompletableFuture<TogglesSnapshot> pending)
+	throws TogglesException
+	{
+		try
+		{
+			return pending.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return snapshot;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof TogglesException) throw (TogglesException) e.getCause();
+
+			throw new TogglesException(e);
+		}
+	}
+
+	/**
+	 * Begin refreshing the toggles on a background thread. If no toggles have been fetched yet, the first
+	 * refresh happens immediately.
+	 */
+	public synchronized void start()
+	{
+		if (scheduler != null) return;
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, THREAD_NAME);
+			t.setDaemon(true);
+			return t;
+		});
+
+		schedule(nextRefreshDelay());
+	}
+
+	/**
+	 * Stop background refreshing. The current snapshot remains available. In RefreshMode.SHARED, another client
+	 * on the host takes over refreshing if this one was doing so.
+	 */
+	public synchronized void shutdown()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+
+		if (store != null) store.close();
+
+		if (shared != null)
+		{
+			try
+			{
+				shared.close();
+			}
+			catch (IOException e)
+			{
+				LOG.debug("Error closing " + shared.getPath(), e);
+			}
+
+			shared = null;
+		}
+	}
+
+	private synchronized void schedule(long delayMillis)
+	{
+		if (scheduler == null) return;
+
+		scheduler.schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void refreshInBackground()
+	{
+		try
+		{
+			if (isSharedReader()) readShared();
+			else if (!isStreaming) refresh();
+		}
+		catch (TogglesException | RuntimeException e)
+		{
+			// Already reported. The breaker's backoff determines when to try again.
+		}
+
+		schedule(nextRefreshDelay());
+	}
+
+	/**
+	 * The next background refresh is due ahead of the current snapshot's TTL, at a point chosen by the RefreshSchedule,
+	 * but never before a failure backoff lapses.
+	 */
+	private long nextRefreshDelay()
+	{
+		if (isSharedReader()) return config.getSharedSnapshotPollMillis();
+
+		TogglesSnapshot current = snapshot;
+		long refreshAt = (current != null ? current.getFetchedAt() + schedule.nextDelay() : 0l);
+		return Math.max(0l, Math.max(refreshAt, breaker.getRetryAt()) - System.currentTimeMillis());
+	}
+}
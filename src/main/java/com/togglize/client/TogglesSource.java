@@ -0,0 +1,47 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.togglize.client.snapshot.TogglesSnapshot;
+
+/**
+ * Where a TogglesRefresher gets the toggles from: the remote API (TogglesFetcher) or, where that can't be reached,
+ * a local file (FileTogglesSource). Sources publish a FetchedEvent for every set of toggles they retrieve.
+ * 
+ * @author tfredrich
+ */
+public interface TogglesSource
+{
+	/**
+	 * Retrieves the toggles, waiting for the result.
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a new snapshot, the current snapshot if the toggles haven't changed, or null if they couldn't be retrieved.
+	 * @throws TogglesException if the toggles can't be retrieved.
+	 */
+	TogglesSnapshot fetch(TogglesSnapshot current)
+	throws TogglesException;
+
+	/**
+	 * Retrieves the toggles without blocking the caller, if the source allows.
+	 * 
+	 * @param current the snapshot currently in use. Possibly null.
+	 * @return a future completed as for fetch(), or completed exceptionally with a TogglesException.
+	 */
+	CompletableFuture<TogglesSnapshot> fetchAsync(TogglesSnapshot current);
+}
@@ -0,0 +1,300 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.HttpHeaders;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.authn.TokenManager;
+import com.togglize.client.http.HttpTransport;
+import com.togglize.client.http.StreamListener;
+import com.togglize.client.http.TransportRequest;
+import com.togglize.client.snapshot.TogglesSnapshot;
+
+/**
+ * Holds a long-lived server-sent events (SSE) connection to the remote API, over which it pushes toggle changes as
+ * they happen. Each 'toggles' event carries the same payload as a fetch: either the complete stage toggles or, when
+ * delta sync is enabled, only the changes since the version the client holds. Events are published to the
+ * TogglesRefresher as the current snapshot.
+ * <p/>
+ * The stream runs on the client's HttpTransport, sharing its connection pool, timeouts and threads, and holds no
+ * thread of its own. Events are read and applied on the transport's worker thread as they arrive.
+ * <p/>
+ * While connected, the refresher's background polling is suspended. When the connection drops, polling resumes and
+ * the stream reconnects after a jittered, exponentially-increasing backoff. The remote API is expected to send
+ * keep-alive comments more often than the socket timeout, otherwise an idle stream is treated as disconnected.
+ * Reconnects are paced by the stream's own CircuitBreaker rather than a RetryPolicy, which gives up after a few
+ * attempts: a stream keeps reconnecting for as long as the client runs.
+ * 
+ * @author tfredrich
+ */
+public class TogglesStream
+{
+	private static final Logger LOG = LogManager.getLogger(TogglesStream.class);
+
+	private static final String TOGGLES_EVENT = "toggles";
+	private static final String EVENT_STREAM = "text/event-stream";
+
+	private TokenManager tokens;
+	private HttpTransport transport;
+	private TogglesConfiguration config;
+	private TogglesRefresher refresher;
+	private CircuitBreaker breaker;
+	private volatile CompletableFuture<Integer> connection;
+	private volatile boolean isRunning;
+
+	public TogglesStream(TokenManager tokens, HttpTransport transport, TogglesConfiguration config, TogglesRefresher refresher)
+	{
+		super();
+		this.tokens = tokens;
+		this.transport = transport;
+		this.config = config;
+		this.refresher = refresher;
+		this.breaker = new CircuitBreaker(config.getMinRefreshBackoffMillis(), config.getMaxRefreshBackoffMillis());
+	}
+
+	/**
+	 * Connect to the remote API and begin applying pushed changes as they arrive.
+	 */
+	public synchronized void start()
+	{
+		if (isRunning) return;
+
+		this.isRunning = true;
+		connect();
+	}
+
+	/**
+	 * Close the stream and stop reconnecting, without waiting on the connection. The current snapshot remains available.
+	 */
+	public void shutdown()
+	{
+		this.isRunning = false;
+		disconnect();
+	}
+
+	private void connect()
+	{
+		if (!isRunning) return;
+
+		if (!breaker.allowRequest(System.currentTimeMillis()))
+		{
+			reconnectLater();
+			return;
+		}
+
+		tokens.getAccessTokenAsync()
+			.thenCompose(this::open)
+			.whenComplete(this::onClosed);
+	}
+
+	private CompletableFuture<Integer> open(String token)
+	{
+		CompletableFuture<Integer> current = transport.stream(newRequest(token), new EventReader());
+		this.connection = current;
+
+		// Shut down while the access token was being acquired.
+		if (!isRunning) current.cancel(false);
+
+		return current;
+	}
+
+	private void disconnect()
+	{
+		CompletableFuture<Integer> current = connection;
+		if (current != null) current.cancel(false);
+	}
+
+	private TransportRequest newRequest(String token)
+	{
+		try
+		{
+			return TransportRequest.get(streamUrl())
+				.header(HttpHeaders.AUTHORIZATION, token)
+				.header(HttpHeaders.ACCEPT, EVENT_STREAM)
+				.header(HttpHeaders.CACHE_CONTROL, "no-cache");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new CompletionException(e);
+		}
+	}
+
+	private String streamUrl()
+	throws UnsupportedEncodingException
+	{
+		TogglesSnapshot current = refresher.getSnapshot();
+
+		if (config.shouldUseDeltaSync() && current != null && current.getVersion() != null)
+		{
+			return config.getStreamEndpoint() + "?since=" + URLEncoder.encode(current.getVersion(), "UTF-8");
+		}
+
+		return config.getStreamEndpoint();
+	}
+
+	/**
+	 * Even if the remote API closed the stream cleanly, backs off before reconnecting rather than looping.
+	 */
+	private void onClosed(Integer status, Throwable e)
+	{
+		this.connection = null;
+		refresher.setStreaming(false);
+
+		if (!isRunning) return;
+
+		Throwable failure = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+
+		if (failure == null && status == 401) // assume needs a token refresh
+		{
+			tokens.newAccessTokenAsync();
+			failure = new IOException("Toggles stream rejected the access token");
+		}
+		else if (failure == null && status != 200)
+		{
+			failure = new IOException("Toggles stream responded with status " + status);
+		}
+
+		onDisconnected(failure);
+		reconnectLater();
+	}
+
+	private void reconnectLater()
+	{
+		long backoff = Math.max(0l, breaker.getRetryAt() - System.currentTimeMillis());
+
+		// Fails, and so stops reconnecting, once the transport is closed.
+		transport.delay(backoff).thenRun(this::connect);
+	}
+
+	private void onDisconnected(Throwable e)
+	{
+		if (breaker.onFailure(System.currentTimeMillis()))
+		{
+			LOG.info("Toggles stream disconnected. Polling until it reconnects.", e);
+		}
+		else
+		{
+			LOG.debug("Toggles stream reconnect failed. Backing off until " + breaker.getRetryAt(), e);
+		}
+	}
+
+	private static String valueOf(String line)
+	{
+		String value = line.substring(line.indexOf(':') + 1);
+		return (value.startsWith(" ") ? value.substring(1) : value);
+	}
+
+	/**
+	 * Splits the stream into lines as it arrives and reads events from them. Only the 'event' and 'data' fields are
+	 * used. Comment lines (e.g. keep-alives) and other fields are ignored.
+	 */
+	private class EventReader
+	implements StreamListener
+	{
+		private ByteArrayOutputStream line = new ByteArrayOutputStream();
+		private boolean wasCarriageReturn;
+		private String event;
+		private StringBuilder data = new StringBuilder();
+
+		@Override
+		public void onStatus(int status)
+		{
+			if (status != 200) return;
+
+			if (breaker.onSuccess())
+			{
+				LOG.info("Toggles stream reconnected. Suspending polling.");
+			}
+
+			refresher.setStreaming(true);
+		}
+
+		@Override
+		public void onData(byte[] bytes)
+		{
+			for (byte b : bytes)
+			{
+				// Lines end with CR, LF or CRLF.
+				if (b == '\n' && wasCarriageReturn)
+				{
+					wasCarriageReturn = false;
+				}
+				else if (b == '\n' || b == '\r')
+				{
+					wasCarriageReturn = (b == '\r');
+					onLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+					line.reset();
+				}
+				else
+				{
+					wasCarriageReturn = false;
+					line.write(b);
+				}
+			}
+		}
+
+		private void onLine(String text)
+		{
+			if (text.isEmpty())
+			{
+				if (data.length() > 0) dispatch(event, data.toString());
+
+				event = null;
+				data.setLength(0);
+			}
+			else if (text.startsWith("event:"))
+			{
+				event = valueOf(text);
+			}
+			else if (text.startsWith("data:"))
+			{
+				if (data.length() > 0) data.append('\n');
+
+				data.append(valueOf(text));
+			}
+		}
+
+		private void dispatch(String name, String payload)
+		{
+			if (!TOGGLES_EVENT.equals(name))
+			{
+				LOG.debug("Ignoring toggles stream event: " + name);
+				return;
+			}
+
+			try
+			{
+				refresher.onPushed(StageTogglesReader.read(payload));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				// Reconnect to resynchronize rather than carry on from toggles that may be missing a change.
+				LOG.warn("Unable to read toggles stream event. Reconnecting.", e);
+				disconnect();
+			}
+		}
+	}
+}
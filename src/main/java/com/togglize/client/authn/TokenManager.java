@@ -1,5 +1,7 @@
 package com.togglize.client.authn;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface TokenManager
 {
 	/**
@@ -18,4 +20,48 @@ public interface TokenManager
 	 * @throws TokenManagerException if an error occurs.
 	 */
 	public void newAccessToken() throws TokenManagerException;
+
+	/**
+	 * Same as getAccessToken(), without blocking the caller if a token must be acquired. The default
+	 * implementation simply calls getAccessToken().
+	 * 
+	 * @return a future completed with the Access Token, or completed exceptionally with a TokenManagerException.
+	 */
+	public default CompletableFuture<String> getAccessTokenAsync()
+	{
+		CompletableFuture<String> future = new CompletableFuture<>();
+
+		try
+		{
+			future.complete(getAccessToken());
+		}
+		catch (TokenManagerException e)
+		{
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Same as newAccessToken(), without blocking the caller. The default implementation simply calls newAccessToken().
+	 * 
+	 * @return a future completed with the new Access Token, or completed exceptionally with a TokenManagerException.
+	 */
+	public default CompletableFuture<String> newAccessTokenAsync()
+	{
+		CompletableFuture<String> future = new CompletableFuture<>();
+
+		try
+		{
+			newAccessToken();
+			future.complete(getAccessToken());
+		}
+		catch (TokenManagerException e)
+		{
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
 }
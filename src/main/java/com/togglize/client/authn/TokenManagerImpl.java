@@ -1,27 +1,39 @@
 package com.togglize.client.authn;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Date;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.http.HttpHeaders;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
+import com.togglize.client.Json;
 import com.togglize.client.TogglesConfiguration;
 import com.togglize.client.event.AuthenticatedEvent;
-import com.togglize.client.event.ErrorEvent;
 import com.togglize.client.event.Events;
+import com.togglize.client.http.HttpTransport;
+import com.togglize.client.http.RetryPolicy;
+import com.togglize.client.http.TransportRequest;
+import com.togglize.client.http.TransportResponse;
 
 /**
- * Acquires 'client_credentials' tokens (JWT) from the OAuth2 token endpoint. It does not validate the token or refresh it.
- * Instead, when clients use the token to make API calls and receive a 401 in response must call newAccessToken()
- * then use the new token by calling getAccessToken().
- * 
+ * Acquires 'client_credentials' tokens (JWT) from the OAuth2 token endpoint and keeps them fresh. It does not validate the token.
+ * <p/>
+ * When the token endpoint reports how long a token lasts (expires_in), a replacement is requested on the transport's scheduler
+ * ahead of expiry, by config.getTokenRefreshSkewMillis(), so API calls don't pay for a failed round trip on every expiry.
+ * Clients that nonetheless receive a 401 from an API call must call newAccessToken() then use the new token by calling getAccessToken().
+ * <p/>
+ * At most one token request is in flight at a time. Concurrent callers of newAccessToken() share its result.
+ * <p/>
  * To use the token in an API request, simply set the 'Authentication' header using the value returned by getAccessToken().
  * 
  * @author tfredrich
@@ -35,17 +47,25 @@ implements TokenManager
 	private static final String SCOPE = "programmatic_client";
 
 	private TogglesConfiguration config;
-	private String accessToken;
+	private HttpTransport transport;
+	private RetryPolicy retries;
+	private final AtomicReference<CompletableFuture<String>> inFlight = new AtomicReference<>();
+
+	// The token and its expiry, published together. Readers only ever dereference it once.
+	private volatile IssuedToken accessToken;
 
 	/**
 	 * Create a new RemoteTokenManager using the provided TogglesConfiguration for settings.
 	 * 
 	 * @param configuration a TogglesConfiguration instance with the desired settings.
+	 * @param transport the HTTP transport used to call the token endpoint.
 	 */
-	public TokenManagerImpl(TogglesConfiguration configuration)
+	public TokenManagerImpl(TogglesConfiguration configuration, HttpTransport transport)
 	{
 		super();
 		this.config = configuration;
+		this.transport = transport;
+		this.retries = new RetryPolicy(configuration);
 	}
 
 	/**
@@ -58,17 +78,20 @@ implements TokenManager
 	public String getAccessToken()
 	throws TokenManagerException
 	{
-		if (accessToken == null)
-		{
-			newAccessToken();
-		}
+		return await(getAccessTokenAsync());
+	}
 
-		return accessToken;
+	@Override
+	public CompletableFuture<String> getAccessTokenAsync()
+	{
+		IssuedToken token = accessToken;
+		return (token != null && !token.isExpired(System.currentTimeMillis()) ? CompletableFuture.completedFuture(token.value) : newAccessTokenAsync());
 	}
 
 	/**
-	 * Calls the OAuth2 token endpoint to acquire an access token. On retryable failure, performs an exponential-backoff retry using config.getRetryDelayMillis().
+	 * Calls the OAuth2 token endpoint to acquire an access token. Transient failures are retried according to the RetryPolicy.
 	 * On success, calls setAccesstoken() with the new access token, which can be accessed via a call to getAccessToken().
+	 * If another thread is already acquiring a token, waits for the result of that request instead.
 	 * 
 	 * @throws TokenManagerException if an unrecoverable error occurs or all retries fail.
 	 */
@@ -76,77 +99,156 @@ implements TokenManager
 	public void newAccessToken()
 	throws TokenManagerException
 	{
-		int retries = config.getMaxRetries();
-		HttpResponse<TokenResponse> response = null;
+		await(newAccessTokenAsync());
+	}
 
-		try
+	/**
+	 * Same as newAccessToken(), except that retries are spaced out on the transport's scheduler rather than by
+	 * sleeping, so no thread is parked while acquiring a token.
+	 */
+	@Override
+	public CompletableFuture<String> newAccessTokenAsync()
+	{
+		CompletableFuture<String> pending = new CompletableFuture<>();
+
+		while (!inFlight.compareAndSet(null, pending))
 		{
-			while (retries-- >= 0)
+			CompletableFuture<String> existing = inFlight.get();
+
+			if (existing != null) return existing;
+		}
+
+		requestToken().whenComplete((token, e) -> {
+			inFlight.set(null);
+
+			if (e != null) pending.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+			else pending.complete(token);
+		});
+
+		return pending;
+	}
+
+	private CompletableFuture<String> requestToken()
+	{
+		return retries.execute(transport, () -> transport.send(newTokenRequest())).thenApply(response -> {
+			if (!response.isSuccessful())
 			{
-				response = Unirest.post(config.getTokenEndpoint())
-					.basicAuth(config.getClientId(), config.getClientSecret())
-			        .header("accept", "application/json")
-					.field("grant_type", GRANT_TYPE)
-					.field("scope", SCOPE)
-					.asObject(TokenResponse.class);
-	
-				if (isSuccessful(response))
-				{
-					setAccessToken(response.getBody().getAccessToken());
-					Events.publish(new AuthenticatedEvent(config.getClientId(), new Date(System.currentTimeMillis())));
-					return;
-				}
-				else if (isFatal(response)) // Don't retry
-				{
-					throwException(response);
-				}
-
-				try
-				{
-					LOG.info("Authentication failed. Retrying");
-					Thread.sleep(config.getRetryDelayMillis() * (config.getMaxRetries() - retries));
-				}
-				catch (InterruptedException e)
-				{
-					// Retry now.
-				}
+				throw new CompletionException(new TokenManagerException(response.getStatus(), response.getBodyAsString()));
 			}
+
+			return onToken(response);
+		});
+	}
+
+	private TransportRequest newTokenRequest()
+	{
+		String credentials = config.getClientId() + ":" + config.getClientSecret();
+		String form = "grant_type=" + urlEncode(GRANT_TYPE) + "&scope=" + urlEncode(SCOPE);
+		return TransportRequest.post(config.getTokenEndpoint(), form.getBytes(StandardCharsets.UTF_8))
+			.header(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)))
+			.header(HttpHeaders.ACCEPT, "application/json")
+			.header(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded");
+	}
+
+	private String onToken(TransportResponse response)
+	{
+		IssuedToken issued;
+
+		try
+		{
+			TokenResponse token = Json.MAPPER.readValue(response.getBody(), TokenResponse.class);
+			issued = setAccessToken(token.getAccessToken(), token.getExpiresIn());
 		}
-		catch (UnirestException e)
+		catch (IOException e)
 		{
-			throw new TokenManagerException(e);
+			throw new CompletionException(new TokenManagerException(e));
 		}
 
-		throwException(response);
+		scheduleRefresh(issued);
+		Events.publish(new AuthenticatedEvent(config.getClientId(), new Date(System.currentTimeMillis())));
+		return issued.value;
 	}
 
-	private void setAccessToken(String token)
+	private IssuedToken setAccessToken(String token, int expiresInSeconds)
 	{
-		this.accessToken = "Bearer " + token;
+		long expiresAt = (expiresInSeconds > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresInSeconds) : Long.MAX_VALUE);
+		IssuedToken issued = new IssuedToken("Bearer " + token, expiresAt, TimeUnit.SECONDS.toMillis(expiresInSeconds));
+		this.accessToken = issued;
+		return issued;
 	}
 
-	private boolean isSuccessful(HttpResponse<TokenResponse> response)
+	/**
+	 * Requests a replacement token ahead of the issued token's expiry. If the token lasts no longer than the skew,
+	 * the replacement is requested half-way through its lifetime instead. Tokens without an expiry aren't refreshed.
+	 */
+	private void scheduleRefresh(IssuedToken issued)
 	{
-		return response.getStatus() >= 200 && response.getStatus() <= 299;
+		if (issued.lifetimeMillis <= 0l) return;
+
+		long delay = issued.lifetimeMillis - config.getTokenRefreshSkewMillis();
+		transport.delay(delay > 0l ? delay : issued.lifetimeMillis / 2)
+			.thenRun(() -> refreshAhead(issued));
+	}
+
+	private void refreshAhead(IssuedToken issued)
+	{
+		// Superseded, e.g. by a refresh after a 401.
+		if (accessToken != issued) return;
+
+		newAccessTokenAsync().whenComplete((token, e) -> {
+			if (e != null) LOG.warn("Unable to refresh the access token ahead of expiry. It will be requested again when needed.", e);
+		});
+	}
+
+	private static class IssuedToken
+	{
+		private final String value;
+		private final long expiresAt;
+		private final long lifetimeMillis;
+
+		public IssuedToken(String value, long expiresAt, long lifetimeMillis)
+		{
+			super();
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.lifetimeMillis = lifetimeMillis;
+		}
+
+		public boolean isExpired(long now)
+		{
+			return now >= expiresAt;
+		}
 	}
 
-	private boolean isFatal(HttpResponse<TokenResponse> response)
+	private static String urlEncode(String value)
 	{
-		return response.getStatus() == 401 || response.getStatus() == 403 || response.getStatus() == 500;
+		try
+		{
+			return URLEncoder.encode(value, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
 	}
 
-	private void throwException(HttpResponse<TokenResponse> response)
+	private static String await(CompletableFuture<String> future)
 	throws TokenManagerException
 	{
-		try (BufferedReader br = new BufferedReader(new InputStreamReader(response.getRawBody())))
+		try
 		{
-			TokenManagerException e = new TokenManagerException(response.getStatus(), br.lines().collect(Collectors.joining(System.lineSeparator())));
-			Events.publish(new ErrorEvent(e));
-			throw e;
+			return future.get();
 		}
-		catch (IOException e)
+		catch (InterruptedException e)
 		{
+			Thread.currentThread().interrupt();
 			throw new TokenManagerException(e);
 		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof TokenManagerException) throw (TokenManagerException) e.getCause();
+
+			throw new TokenManagerException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+		}
 	}
 }
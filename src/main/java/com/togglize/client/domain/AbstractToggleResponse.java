@@ -30,6 +30,25 @@ public abstract class AbstractToggleResponse
 	private boolean enabled;
 	private Collection<Strategy> strategies;
 
+	protected AbstractToggleResponse()
+	{
+		super();
+	}
+
+	protected AbstractToggleResponse(String name, boolean enabled, Collection<Strategy> strategies)
+	{
+		this();
+		this.name = name;
+		this.enabled = enabled;
+		this.strategies = strategies;
+	}
+
+	protected AbstractToggleResponse(String id, String name, boolean enabled, Collection<Strategy> strategies)
+	{
+		this(name, enabled, strategies);
+		this.id = id;
+	}
+
 	public String getId()
 	{
 		return id;
@@ -15,6 +15,8 @@
 */
 package com.togglize.client.domain;
 
+import java.util.Collection;
+
 /**
  * @author toddf
  * @since Apr 26, 2019
@@ -26,6 +28,24 @@ extends AbstractToggleResponse
 	private Boolean featureEnabled;
 	private Boolean releaseEnabled;
 
+	public FeatureToggle()
+	{
+		super();
+	}
+
+	public FeatureToggle(String name, boolean enabled, Collection<Strategy> strategies)
+	{
+		super(name, enabled, strategies);
+	}
+
+	public FeatureToggle(String id, String name, boolean enabled, Collection<Strategy> strategies, Release release, Boolean featureEnabled, Boolean releaseEnabled)
+	{
+		super(id, name, enabled, strategies);
+		this.release = release;
+		this.featureEnabled = featureEnabled;
+		this.releaseEnabled = releaseEnabled;
+	}
+
 	public String getReleaseId()
 	{
 		return (release != null ? release.getId() : null);
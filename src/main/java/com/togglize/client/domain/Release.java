@@ -23,6 +23,17 @@ public class Release
 {
 	private String id;
 
+	public Release()
+	{
+		super();
+	}
+
+	public Release(String id)
+	{
+		this();
+		this.id = id;
+	}
+
 	public String getId()
 	{
 		return id;
@@ -24,6 +24,18 @@ public class Stage
 	private String id;
 	private String name;
 
+	public Stage()
+	{
+		super();
+	}
+
+	public Stage(String id, String name)
+	{
+		this();
+		this.id = id;
+		this.name = name;
+	}
+
 	public String getId()
 	{
 		return id;
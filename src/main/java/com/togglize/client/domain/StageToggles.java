@@ -1,17 +1,78 @@
 package com.togglize.client.domain;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class StageToggles
 {
 	private Stage stage;
 	private Map<String, FeatureToggle> features;
+	private String version;
+	private boolean delta;
+	private List<String> removed;
+
+	public StageToggles()
+	{
+		super();
+	}
+
+	public StageToggles(Stage stage, Map<String, FeatureToggle> features, String version, boolean delta, List<String> removed)
+	{
+		this();
+		this.stage = stage;
+		this.features = features;
+		this.version = version;
+		this.delta = delta;
+		this.removed = removed;
+	}
 
 	public Stage getStage()
 	{
 		return stage;
 	}
 
+	/**
+	 * Returns the server-assigned version of these toggles, sent back as the 'since' parameter to request a delta.
+	 * 
+	 * @return an opaque version string. Possibly null if the remote API doesn't version toggles.
+	 */
+	public String getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Answer whether this is a delta (only the features added, changed or removed since the requested version)
+	 * rather than the complete set of toggles for the stage.
+	 * 
+	 * @return true if this is a delta.
+	 */
+	public boolean isDelta()
+	{
+		return delta;
+	}
+
+	/**
+	 * Returns the names of the features removed since the requested version. Only meaningful for a delta.
+	 * 
+	 * @return an unmodifiable list of feature names. Never null.
+	 */
+	public List<String> getRemoved()
+	{
+		return (removed != null ? Collections.unmodifiableList(removed) : Collections.emptyList());
+	}
+
+	/**
+	 * Returns the feature toggles keyed by name. Never null.
+	 * 
+	 * @return an unmodifiable view of the feature toggles in this stage.
+	 */
+	public Map<String, FeatureToggle> getFeatures()
+	{
+		return (features != null ? Collections.unmodifiableMap(features) : Collections.emptyMap());
+	}
+
 	public FeatureToggle getFeatureToggle(String name)
 	{
 		return (features != null ? features.get(name) : null);
@@ -27,6 +27,18 @@ public class Strategy
 	private String name;
 	private Map<String, String> parameters;
 
+	public Strategy()
+	{
+		super();
+	}
+
+	public Strategy(String name, Map<String, String> parameters)
+	{
+		this();
+		this.name = name;
+		this.parameters = parameters;
+	}
+
 	public String getId()
 	{
 		return id;
@@ -0,0 +1,310 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.TogglesConfiguration;
+
+/**
+ * An HttpTransport on Apache HttpAsyncClient: a single non-blocking I/O thread and a small pool of persistent
+ * connections, owned by one TogglesClient. Responses are read in full by the I/O thread, then handed to a
+ * single worker thread to complete the caller's future, so parsing and other dependent stages never hold up I/O.
+ * Streamed responses (see stream()) are handed over chunk by chunk instead.
+ * <p/>
+ * Nothing running on the worker thread may wait on a response, since only that thread can deliver it. Futures
+ * handed on to application code (see TogglesClient.isEnabledAsync()) are completed on another thread.
+ * <p/>
+ * Reading in full means a response body is held in memory, as received, before it is parsed. Parsing straight off
+ * the socket would need either a blocking parse on a thread fed from the I/O thread, or a parser that can resume
+ * mid-token. Toggles payloads are small, particularly gzipped, so neither is worth it yet.
+ * <p/>
+ * All threads are daemons, so an un-closed transport never prevents the JVM from exiting.
+ * 
+ * @author tfredrich
+ */
+public class AsyncHttpTransport
+implements HttpTransport
+{
+	private static final Logger LOG = LogManager.getLogger(AsyncHttpTransport.class);
+
+	private static final String IO_THREAD_NAME = "toggles-http-io";
+	private static final String WORKER_THREAD_NAME = "toggles-http-worker";
+
+	// A client talks to at most a couple of hosts (token and toggles), with little concurrency.
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	private static final int MAX_CONNECTIONS = 8;
+
+	private CloseableHttpAsyncClient http;
+	private ScheduledExecutorService worker;
+
+	public AsyncHttpTransport(TogglesConfiguration config)
+	{
+		super();
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads(WORKER_THREAD_NAME));
+		// Pending delays (e.g. a token refresh due in an hour) are abandoned on close.
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.worker = scheduler;
+		this.http = HttpAsyncClients.custom()
+			.setDefaultRequestConfig(RequestConfig.custom()
+				.setConnectTimeout((int) config.getConnectionTimeoutMillis())
+				.setConnectionRequestTimeout((int) config.getConnectionTimeoutMillis())
+				.setSocketTimeout((int) config.getSocketTimeoutMillis())
+				.build())
+			.setDefaultIOReactorConfig(IOReactorConfig.custom()
+				.setIoThreadCount(1)
+				.build())
+			.setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+			.setMaxConnTotal(MAX_CONNECTIONS)
+			.setThreadFactory(daemonThreads(IO_THREAD_NAME))
+			.disableCookieManagement()
+			.build();
+		http.start();
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> send(TransportRequest request)
+	{
+		CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+
+		try
+		{
+			http.execute(toHttpRequest(request), new FutureCallback<HttpResponse>()
+			{
+				@Override
+				public void completed(HttpResponse response)
+				{
+					try
+					{
+						TransportResponse result = toTransportResponse(response);
+						worker.execute(() -> future.complete(result));
+					}
+					catch (IOException | RuntimeException e)
+					{
+						failed(e);
+					}
+				}
+
+				@Override
+				public void failed(Exception e)
+				{
+					worker.execute(() -> future.completeExceptionally(e));
+				}
+
+				@Override
+				public void cancelled()
+				{
+					worker.execute(() -> future.cancel(false));
+				}
+			});
+		}
+		catch (RuntimeException e) // e.g. the transport has been closed
+		{
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<Integer> stream(TransportRequest request, StreamListener listener)
+	{
+		CompletableFuture<Integer> future = new CompletableFuture<>();
+
+		try
+		{
+			Future<Integer> exchange = http.execute(HttpAsyncMethods.create(toHttpRequest(request)), new StreamConsumer(listener), new FutureCallback<Integer>()
+			{
+				@Override
+				public void completed(Integer status)
+				{
+					worker.execute(() -> future.complete(status));
+				}
+
+				@Override
+				public void failed(Exception e)
+				{
+					worker.execute(() -> future.completeExceptionally(e));
+				}
+
+				@Override
+				public void cancelled()
+				{
+					worker.execute(() -> future.cancel(false));
+				}
+			});
+
+			// Aborting the exchange closes its connection from the I/O thread. Nothing waits on the reader.
+			future.whenComplete((status, e) -> {
+				if (future.isCancelled()) exchange.cancel(true);
+			});
+		}
+		catch (RuntimeException e) // e.g. the transport has been closed
+		{
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<Void> delay(long delayMillis)
+	{
+		CompletableFuture<Void> future = new CompletableFuture<>();
+
+		try
+		{
+			worker.schedule(() -> future.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) // the transport has been closed
+		{
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			http.close();
+		}
+		catch (IOException e)
+		{
+			LOG.debug("Error closing HTTP transport", e);
+		}
+
+		worker.shutdown();
+	}
+
+	private static HttpRequestBase toHttpRequest(TransportRequest request)
+	{
+		HttpRequestBase http;
+
+		if ("POST".equals(request.getMethod()))
+		{
+			HttpPost post = new HttpPost(request.getUri());
+			if (request.getBody() != null) post.setEntity(new ByteArrayEntity(request.getBody()));
+			http = post;
+		}
+		else
+		{
+			http = new HttpGet(request.getUri());
+		}
+
+		request.getHeaders().forEach(http::setHeader);
+		return http;
+	}
+
+	private static TransportResponse toTransportResponse(HttpResponse response)
+	throws IOException
+	{
+		Map<String, String> headers = new HashMap<>();
+
+		for (Header header : response.getAllHeaders())
+		{
+			headers.putIfAbsent(header.getName(), header.getValue());
+		}
+
+		HttpEntity entity = response.getEntity();
+		byte[] body = (entity != null ? EntityUtils.toByteArray(entity) : null);
+		return new TransportResponse(response.getStatusLine().getStatusCode(), headers, body);
+	}
+
+	/**
+	 * Hands a streamed response to its listener, chunk by chunk, on the worker thread. Chunks are copied off the
+	 * I/O thread's buffer, so a slow listener never holds up I/O.
+	 */
+	private class StreamConsumer
+	extends AsyncByteConsumer<Integer>
+	{
+		private StreamListener listener;
+		private int status;
+
+		public StreamConsumer(StreamListener listener)
+		{
+			super();
+			this.listener = listener;
+		}
+
+		@Override
+		protected void onResponseReceived(HttpResponse response)
+		{
+			int received = response.getStatusLine().getStatusCode();
+			this.status = received;
+			worker.execute(() -> listener.onStatus(received));
+		}
+
+		@Override
+		protected void onByteReceived(ByteBuffer buffer, IOControl control)
+		{
+			if (status / 100 != 2) return;
+
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			worker.execute(() -> listener.onData(bytes));
+		}
+
+		@Override
+		protected Integer buildResult(HttpContext context)
+		{
+			return status;
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
@@ -0,0 +1,65 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests to the remote API without blocking the caller. Each TogglesClient owns its own transport, so
+ * clients in the same JVM never share (or overwrite) each other's connections, timeouts or threads.
+ * <p/>
+ * Futures returned by a transport complete on the transport's own worker thread, never on the thread performing
+ * network I/O. Dependent stages must not block on other transport futures, or they'll wait on themselves.
+ * 
+ * @author tfredrich
+ */
+public interface HttpTransport
+extends Closeable
+{
+	/**
+	 * Send a request.
+	 * 
+	 * @param request the request to send. Never null.
+	 * @return a future completed with the response, whatever its status, or completed exceptionally if no response was received.
+	 */
+	CompletableFuture<TransportResponse> send(TransportRequest request);
+
+	/**
+	 * Send a request whose response is handed to a listener as it arrives instead of being read in full, e.g. a
+	 * server-sent events stream that never ends.
+	 * 
+	 * @param request the request to send. Never null.
+	 * @param listener receives the response's status and body. Never null.
+	 * @return a future completed with the response's status once the response ends, or completed exceptionally if the
+	 * connection fails or times out. Cancelling the future closes the connection without waiting on it.
+	 */
+	CompletableFuture<Integer> stream(TransportRequest request, StreamListener listener);
+
+	/**
+	 * Returns a future that completes after the given delay, e.g. to space out retries without parking a thread.
+	 * 
+	 * @param delayMillis the delay in milliseconds.
+	 * @return a future completed on the transport's worker thread once the delay has passed.
+	 */
+	CompletableFuture<Void> delay(long delayMillis);
+
+	/**
+	 * Release the transport's connections and threads. Requests sent afterward fail.
+	 */
+	@Override
+	void close();
+}
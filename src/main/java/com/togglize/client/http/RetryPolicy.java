@@ -0,0 +1,165 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.TogglesConfiguration;
+
+/**
+ * Decides whether, and when, to retry a request to the remote API. Shared by token requests and toggle fetches.
+ * <p/>
+ * Only transient failures are retried: I/O errors (e.g. connection refused or timed out) and the statuses 408, 429,
+ * 500, 502, 503 and 504. Delays use "decorrelated jitter": each is chosen at random between the base delay and three
+ * times the previous delay, capped at the maximum. That keeps clients that failed together (e.g. a fleet restarting
+ * at once) from retrying in lockstep. A Retry-After header, in seconds, lengthens the delay to at least that long.
+ * <p/>
+ * Retries stop when the maximum number of retries is reached or when the next attempt would start after the
+ * overall deadline. Delays are scheduled on the transport, so no thread sleeps between attempts.
+ * 
+ * @author tfredrich
+ */
+public class RetryPolicy
+{
+	private static final Logger LOG = LogManager.getLogger(RetryPolicy.class);
+
+	private static final String RETRY_AFTER = "Retry-After";
+
+	private int maxRetries;
+	private long baseDelayMillis;
+	private long maxDelayMillis;
+	private long deadlineMillis;
+
+	public RetryPolicy(TogglesConfiguration config)
+	{
+		this(config.getMaxRetries(), config.getRetryDelayMillis(), config.getMaxRetryDelayMillis(), config.getRetryDeadlineMillis());
+	}
+
+	public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, long deadlineMillis)
+	{
+		super();
+		this.maxRetries = Math.max(0, maxRetries);
+		this.baseDelayMillis = Math.max(1l, baseDelayMillis);
+		this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * Makes a request, retrying it according to this policy.
+	 * 
+	 * @param transport schedules the delays between attempts.
+	 * @param attempt sends the request. Called once per attempt.
+	 * @return a future completed with the first response that isn't retryable or, once retries are exhausted, the last
+	 * response received. Completed exceptionally if the last attempt received no response.
+	 */
+	public CompletableFuture<TransportResponse> execute(HttpTransport transport, Supplier<CompletableFuture<TransportResponse>> attempt)
+	{
+		return execute(transport, attempt, 0, baseDelayMillis, System.currentTimeMillis() + deadlineMillis);
+	}
+
+	private CompletableFuture<TransportResponse> execute(HttpTransport transport, Supplier<CompletableFuture<TransportResponse>> attempt, int retries, long previousDelay, long deadline)
+	{
+		return attempt.get().handle((response, e) -> {
+			Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+			boolean isRetryable = (cause != null ? isRetryable(cause) : isRetryable(response.getStatus()));
+			long delay = (response != null ? Math.max(nextDelay(previousDelay), retryAfter(response)) : nextDelay(previousDelay));
+
+			if (!isRetryable || retries >= maxRetries || System.currentTimeMillis() + delay > deadline)
+			{
+				return settle(response, cause);
+			}
+
+			LOG.debug("Request failed (" + (cause != null ? cause : response.getStatus()) + "). Retrying in " + delay + "ms");
+			return transport.delay(delay).thenCompose(v -> execute(transport, attempt, retries + 1, delay, deadline));
+		})
+		.thenCompose(Function.identity());
+	}
+
+	/**
+	 * @param status an HTTP response status.
+	 * @return true if a request that received this status may succeed if retried.
+	 */
+	public boolean isRetryable(int status)
+	{
+		switch (status)
+		{
+			case 408:
+			case 429:
+			case 500:
+			case 502:
+			case 503:
+			case 504:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param failure the reason no response was received.
+	 * @return true if a request that failed this way may succeed if retried.
+	 */
+	public boolean isRetryable(Throwable failure)
+	{
+		return (failure instanceof IOException);
+	}
+
+	/**
+	 * Chooses the delay before the next attempt, at random between the base delay and three times the previous delay.
+	 * 
+	 * @param previousDelayMillis the previous delay, or the base delay before the first retry.
+	 * @return the next delay in milliseconds, between the base and maximum delays inclusive.
+	 */
+	long nextDelay(long previousDelayMillis)
+	{
+		long upper = Math.min(maxDelayMillis, Math.max(baseDelayMillis, previousDelayMillis) * 3);
+		return ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1);
+	}
+
+	private long retryAfter(TransportResponse response)
+	{
+		String value = response.getHeader(RETRY_AFTER);
+
+		if (value == null) return 0l;
+
+		try
+		{
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+		}
+		catch (NumberFormatException e) // an HTTP date, which isn't worth the parse.
+		{
+			return 0l;
+		}
+	}
+
+	private static CompletableFuture<TransportResponse> settle(TransportResponse response, Throwable failure)
+	{
+		if (failure == null) return CompletableFuture.completedFuture(response);
+
+		CompletableFuture<TransportResponse> failed = new CompletableFuture<>();
+		failed.completeExceptionally(failure);
+		return failed;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+/**
+ * Receives a response as it arrives, rather than once it has been read in full. See HttpTransport.stream().
+ * Called on the transport's worker thread, one call at a time and in order.
+ * 
+ * @author tfredrich
+ */
+public interface StreamListener
+{
+	/**
+	 * Called once the response's status line has been received, before any of its body.
+	 * 
+	 * @param status the HTTP status code.
+	 */
+	void onStatus(int status);
+
+	/**
+	 * Called with each chunk of a successful (2xx) response's body, as it arrives. The bodies of other responses
+	 * are discarded.
+	 * 
+	 * @param bytes the chunk, owned by the listener from then on.
+	 */
+	void onData(byte[] bytes);
+}
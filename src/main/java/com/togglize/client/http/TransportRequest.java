@@ -0,0 +1,95 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request to the remote API: a method, URI, headers and an optional body.
+ * 
+ * @author tfredrich
+ */
+public class TransportRequest
+{
+	private String method;
+	private String uri;
+	private Map<String, String> headers = new LinkedHashMap<>();
+	private byte[] body;
+
+	private TransportRequest(String method, String uri, byte[] body)
+	{
+		super();
+		this.method = method;
+		this.uri = uri;
+		this.body = body;
+	}
+
+	public static TransportRequest get(String uri)
+	{
+		return new TransportRequest("GET", uri, null);
+	}
+
+	public static TransportRequest post(String uri, byte[] body)
+	{
+		return new TransportRequest("POST", uri, body);
+	}
+
+	/**
+	 * Set a request header, replacing any previous value.
+	 * 
+	 * @param name the header name.
+	 * @param value the header value. Null to remove the header.
+	 * @return this TransportRequest instance for method chaining.
+	 */
+	public TransportRequest header(String name, String value)
+	{
+		if (value == null)
+		{
+			headers.remove(name);
+		}
+		else
+		{
+			headers.put(name, value);
+		}
+
+		return this;
+	}
+
+	public String getMethod()
+	{
+		return method;
+	}
+
+	public String getUri()
+	{
+		return uri;
+	}
+
+	public Map<String, String> getHeaders()
+	{
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * @return the request body. Null for requests without one.
+	 */
+	public byte[] getBody()
+	{
+		return body;
+	}
+}
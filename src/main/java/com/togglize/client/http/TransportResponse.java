@@ -0,0 +1,85 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A response from the remote API. The body is held as received on the wire, so a gzip-encoded body is still
+ * compressed; see getHeader("Content-Encoding").
+ * 
+ * @author tfredrich
+ */
+public class TransportResponse
+{
+	private static final byte[] EMPTY = new byte[0];
+
+	private int status;
+	private Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private byte[] body;
+
+	public TransportResponse(int status, Map<String, String> headers, byte[] body)
+	{
+		super();
+		this.status = status;
+		this.headers.putAll(headers);
+		this.body = (body != null ? body : EMPTY);
+	}
+
+	public int getStatus()
+	{
+		return status;
+	}
+
+	public boolean isSuccessful()
+	{
+		return (status >= 200 && status <= 299);
+	}
+
+	/**
+	 * @param name a header name, matched case-insensitively.
+	 * @return the (first) value of the named header. Null if the response doesn't have it.
+	 */
+	public String getHeader(String name)
+	{
+		return headers.get(name);
+	}
+
+	/**
+	 * @return the body as received on the wire. Never null, but possibly empty.
+	 */
+	public byte[] getBody()
+	{
+		return body;
+	}
+
+	public InputStream getBodyAsStream()
+	{
+		return new ByteArrayInputStream(body);
+	}
+
+	/**
+	 * @return the body decoded as UTF-8, e.g. for an error message.
+	 */
+	public String getBodyAsString()
+	{
+		return new String(body, StandardCharsets.UTF_8);
+	}
+}
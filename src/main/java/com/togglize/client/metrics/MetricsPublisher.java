@@ -1,6 +1,119 @@
 package com.togglize.client.metrics;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpHeaders;
+
+import com.togglize.client.TogglesConfiguration;
+import com.togglize.client.TogglesException;
+import com.togglize.client.authn.TokenManager;
+import com.togglize.client.http.HttpTransport;
+import com.togglize.client.http.TransportRequest;
+
+/**
+ * Uploads metrics to the remote API. Request bodies at or above the configured compression threshold are sent
+ * gzip-compressed; smaller ones aren't worth the CPU.
+ * <p/>
+ * TogglesClient doesn't create one yet: MetricsEventHandler doesn't accumulate metrics to upload.
+ * 
+ * @author tfredrich
+ */
 public class MetricsPublisher
 {
+	private static final String GZIP = "gzip";
+
+	private TokenManager tokens;
+	private HttpTransport transport;
+	private TogglesConfiguration config;
+	private TransferStats stats;
+
+	public MetricsPublisher(TokenManager tokens, HttpTransport transport, TogglesConfiguration config, TransferStats stats)
+	{
+		super();
+		this.tokens = tokens;
+		this.transport = transport;
+		this.config = config;
+		this.stats = stats;
+	}
+
+	/**
+	 * Upload a metrics payload to the remote API's metrics endpoint, waiting for the upload to complete.
+	 * 
+	 * @param json the metrics, serialized as JSON.
+	 * @throws TogglesException if the upload fails or the remote API rejects it.
+	 */
+	public void publish(String json)
+	throws TogglesException
+	{
+		try
+		{
+			publishAsync(json).get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new TogglesException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof TogglesException) throw (TogglesException) e.getCause();
+
+			throw new TogglesException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+		}
+	}
+
+	/**
+	 * Upload a metrics payload to the remote API's metrics endpoint without blocking.
+	 * 
+	 * @param json the metrics, serialized as JSON.
+	 * @return a future completed once the remote API accepts the upload, or completed exceptionally with a TogglesException.
+	 */
+	public CompletableFuture<Void> publishAsync(String json)
+	{
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		boolean shouldCompress = (body.length >= config.getCompressionThresholdBytes());
+		byte[] wire = (shouldCompress ? gzip(body) : body);
+
+		return tokens.getAccessTokenAsync()
+			.thenCompose(token -> transport.send(TransportRequest.post(config.getMetricsEndpoint(), wire)
+				.header(HttpHeaders.AUTHORIZATION, token)
+				.header(HttpHeaders.CONTENT_TYPE, "application/json")
+				.header(HttpHeaders.CONTENT_ENCODING, (shouldCompress ? GZIP : null))))
+			.thenAccept(response -> {
+				stats.onSent(wire.length, body.length);
+
+				if (response.getStatus() == 401) // assume needs a token refresh
+				{
+					tokens.newAccessTokenAsync();
+				}
+
+				if (!response.isSuccessful())
+				{
+					throw new CompletionException(new TogglesException("Metrics upload rejected with HTTP " + response.getStatus() + ": " + response.getBodyAsString()));
+				}
+			});
+	}
+
+	private static byte[] gzip(byte[] body)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes))
+		{
+			out.write(body);
+		}
+		catch (IOException e)
+		{
+			// Writing to memory doesn't fail.
+			throw new IllegalStateException(e);
+		}
 
+		return bytes.toByteArray();
+	}
 }
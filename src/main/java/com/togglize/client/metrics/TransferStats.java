@@ -0,0 +1,83 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bytes exchanged with the remote API, both as transferred on the wire and as encoded or decoded by
+ * the client, so the savings from compression are visible. Safe to update and read from any thread.
+ * 
+ * @author tfredrich
+ */
+public class TransferStats
+{
+	private final LongAdder wireBytesReceived = new LongAdder();
+	private final LongAdder decodedBytesReceived = new LongAdder();
+	private final LongAdder wireBytesSent = new LongAdder();
+	private final LongAdder unencodedBytesSent = new LongAdder();
+
+	/**
+	 * Record a response body read from the remote API.
+	 * 
+	 * @param wireBytes the size of the body as transferred, e.g. gzip-compressed.
+	 * @param decodedBytes the size of the body after decoding.
+	 */
+	public void onReceived(long wireBytes, long decodedBytes)
+	{
+		wireBytesReceived.add(wireBytes);
+		decodedBytesReceived.add(decodedBytes);
+	}
+
+	/**
+	 * Record a request body sent to the remote API.
+	 * 
+	 * @param wireBytes the size of the body as transferred, e.g. gzip-compressed.
+	 * @param unencodedBytes the size of the body before encoding.
+	 */
+	public void onSent(long wireBytes, long unencodedBytes)
+	{
+		wireBytesSent.add(wireBytes);
+		unencodedBytesSent.add(unencodedBytes);
+	}
+
+	public long getWireBytesReceived()
+	{
+		return wireBytesReceived.sum();
+	}
+
+	public long getDecodedBytesReceived()
+	{
+		return decodedBytesReceived.sum();
+	}
+
+	public long getWireBytesSent()
+	{
+		return wireBytesSent.sum();
+	}
+
+	public long getUnencodedBytesSent()
+	{
+		return unencodedBytesSent.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("received %d bytes (%d decoded), sent %d bytes (%d unencoded)",
+			getWireBytesReceived(), getDecodedBytesReceived(), getWireBytesSent(), getUnencodedBytesSent());
+	}
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.util.concurrent.RecursiveAction;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.strategy.StrategyEvaluator;
+
+/**
+ * Evaluates one feature's compiled strategy over a range of contexts, writing each result as a bit in a
+ * shared long[]. Ranges are split on 64-context boundaries, so concurrent subtasks never write the same word.
+ * 
+ * @author tfredrich
+ */
+class BatchEvaluation
+extends RecursiveAction
+{
+	private static final long serialVersionUID = -4178541003612734541L;
+
+	// Contexts per subtask below which splitting further costs more than it saves. A multiple of 64.
+	static final int MIN_SPLIT_SIZE = 4096;
+
+	private final StrategyEvaluator strategy;
+	private final TogglesContext[] contexts;
+	private final long[] words;
+	private final int from;
+	private final int to;
+
+	BatchEvaluation(StrategyEvaluator strategy, TogglesContext[] contexts, long[] words, int from, int to)
+	{
+		super();
+		this.strategy = strategy;
+		this.contexts = contexts;
+		this.words = words;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute()
+	{
+		if (to - from <= MIN_SPLIT_SIZE)
+		{
+			evaluate();
+			return;
+		}
+
+		int middle = from + (((to - from) >>> 1) & ~63);
+		invokeAll(new BatchEvaluation(strategy, contexts, words, from, middle),
+			new BatchEvaluation(strategy, contexts, words, middle, to));
+	}
+
+	void evaluate()
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (strategy.evaluate(contexts[i]))
+			{
+				words[i >>> 6] |= 1l << i;
+			}
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.Stage;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * A compact binary encoding of a TogglesSnapshot: only what's needed to evaluate and revalidate the toggles, with
+ * no field names. Strings are UTF-8, prefixed with their length in bytes, or -1 for null. Collections are prefixed
+ * with their size, or -1 for null. A null feature (e.g. "name": null in the payload) is written as its name and an
+ * enabled byte of -1, with no strategies. All numbers are big-endian.
+ * <pre>
+ * fetchedAt:long version:string etag:string lastModified:string
+ * hasStage:byte [stageId:string stageName:string]
+ * featureCount:int { name:string enabled:byte strategyCount:int { name:string parameterCount:int { key:string value:string } } }
+ * </pre>
+ * 
+ * @author tfredrich
+ */
+public final class BinarySnapshot
+{
+	private static final int NULL = -1;
+
+	private BinarySnapshot()
+	{
+		super();
+	}
+
+	public static byte[] encode(TogglesSnapshot snapshot)
+	{
+		Encoder out = new Encoder();
+		out.putLong(snapshot.getFetchedAt());
+		out.putString(snapshot.getVersion());
+		out.putString(snapshot.getEtag());
+		out.putString(snapshot.getLastModified());
+
+		Stage stage = snapshot.getStage();
+		out.putByte(stage != null ? 1 : 0);
+
+		if (stage != null)
+		{
+			out.putString(stage.getId());
+			out.putString(stage.getName());
+		}
+
+		Map<String, FeatureToggle> features = snapshot.toStageToggles().getFeatures();
+		out.putInt(features.size());
+
+		for (Map.Entry<String, FeatureToggle> feature : features.entrySet())
+		{
+			out.putString(feature.getKey());
+			FeatureToggle toggle = feature.getValue();
+
+			if (toggle == null)
+			{
+				out.putByte(NULL);
+				continue;
+			}
+
+			out.putByte(toggle.isEnabled() ? 1 : 0);
+			putStrategies(out, toggle.getStrategies());
+		}
+
+		return out.toByteArray();
+	}
+
+	private static void putStrategies(Encoder out, Collection<Strategy> strategies)
+	{
+		if (strategies == null)
+		{
+			out.putInt(NULL);
+			return;
+		}
+
+		out.putInt(strategies.size());
+
+		for (Strategy strategy : strategies)
+		{
+			out.putString(strategy.getName());
+			Map<String, String> parameters = strategy.getParameters();
+			out.putInt(parameters != null ? parameters.size() : NULL);
+
+			if (parameters == null) continue;
+
+			for (Map.Entry<String, String> parameter : parameters.entrySet())
+			{
+				out.putString(parameter.getKey());
+				out.putString(parameter.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Decodes a snapshot, reading directly from the buffer (e.g. a memory mapping) from its position to its limit.
+	 * 
+	 * @param in the encoded snapshot. Its position is advanced.
+	 * @param compiler compiles the feature-activation strategies of the toggles read.
+	 * @return the decoded snapshot.
+	 * @throws IllegalArgumentException if the buffer doesn't hold a valid encoding.
+	 */
+	public static TogglesSnapshot decode(ByteBuffer in, StrategyCompiler compiler)
+	{
+		try
+		{
+			long fetchedAt = in.getLong();
+			String version = getString(in);
+			String etag = getString(in);
+			String lastModified = getString(in);
+			return new TogglesSnapshot(getToggles(in, version), fetchedAt, etag, lastModified, compiler);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Truncated snapshot", e);
+		}
+	}
+
+	/**
+	 * Decodes only the toggles of a snapshot, without compiling their strategies, e.g. to build a new snapshot from
+	 * them. The fetch time, ETag and Last-Modified are skipped.
+	 * 
+	 * @param in the encoded snapshot. Its position is advanced.
+	 * @return the decoded toggles.
+	 * @throws IllegalArgumentException if the buffer doesn't hold a valid encoding.
+	 */
+	public static StageToggles decodeToggles(ByteBuffer in)
+	{
+		try
+		{
+			in.getLong();
+			String version = getString(in);
+			getString(in);
+			getString(in);
+			return getToggles(in, version);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Truncated snapshot", e);
+		}
+	}
+
+	private static StageToggles getToggles(ByteBuffer in, String version)
+	{
+		Stage stage = (in.get() != 0 ? new Stage(getString(in), getString(in)) : null);
+		int count = getSize(in);
+		Map<String, FeatureToggle> features = new LinkedHashMap<>(Math.max(count, 0) * 2);
+
+		for (int i = 0; i < count; i++)
+		{
+			String name = getString(in);
+			byte isEnabled = in.get();
+			features.put(name, (isEnabled == NULL ? null : new FeatureToggle(name, isEnabled != 0, getStrategies(in))));
+		}
+
+		return new StageToggles(stage, features, version, false, null);
+	}
+
+	private static List<Strategy> getStrategies(ByteBuffer in)
+	{
+		int count = getSize(in);
+
+		if (count == NULL) return null;
+
+		List<Strategy> strategies = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			String name = getString(in);
+			int parameterCount = getSize(in);
+			Map<String, String> parameters = null;
+
+			if (parameterCount != NULL)
+			{
+				parameters = new HashMap<>(parameterCount * 2);
+
+				for (int j = 0; j < parameterCount; j++)
+				{
+					parameters.put(getString(in), getString(in));
+				}
+			}
+
+			strategies.add(new Strategy(name, parameters));
+		}
+
+		return strategies;
+	}
+
+	private static int getSize(ByteBuffer in)
+	{
+		int size = in.getInt();
+
+		// Guards against allocating for a corrupt size.
+		if (size < NULL || size > in.remaining()) throw new IllegalArgumentException("Invalid size: " + size);
+
+		return size;
+	}
+
+	private static String getString(ByteBuffer in)
+	{
+		int length = getSize(in);
+
+		if (length == NULL) return null;
+
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A growable big-endian buffer.
+	 */
+	private static class Encoder
+	{
+		private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		public void putByte(int value)
+		{
+			ensureRemaining(1);
+			buffer.put((byte) value);
+		}
+
+		public void putInt(int value)
+		{
+			ensureRemaining(4);
+			buffer.putInt(value);
+		}
+
+		public void putLong(long value)
+		{
+			ensureRemaining(8);
+			buffer.putLong(value);
+		}
+
+		public void putString(String value)
+		{
+			if (value == null)
+			{
+				putInt(NULL);
+				return;
+			}
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			ensureRemaining(bytes.length);
+			buffer.put(bytes);
+		}
+
+		public byte[] toByteArray()
+		{
+			byte[] bytes = new byte[buffer.position()];
+			System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+			return bytes;
+		}
+
+		private void ensureRemaining(int length)
+		{
+			if (buffer.remaining() >= length) return;
+
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+			buffer.flip();
+			larger.put(buffer);
+			this.buffer = larger;
+		}
+	}
+}
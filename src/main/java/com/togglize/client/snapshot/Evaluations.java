@@ -0,0 +1,160 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable result of evaluating every feature in a TogglesSnapshot for one context, as returned by
+ * TogglesClient.evaluateAll(). Results are kept in a BitSet indexed by feature slot.
+ * <p/>
+ * Evaluations can be propagated to downstream services, e.g. as an HTTP header, via toHeaderValue(). The
+ * header value is the snapshot's layout ID and the result bits, so it stays a few bytes per 8 features.
+ * A service holding an identical snapshot decodes it with TogglesClient.decodeEvaluations().
+ * 
+ * @author tfredrich
+ */
+public class Evaluations
+{
+	private static final Evaluations EMPTY = new Evaluations(null, new BitSet(0));
+	private static final char SEPARATOR = ':';
+
+	private final TogglesSnapshot snapshot;
+	private final BitSet enabled;
+
+	Evaluations(TogglesSnapshot snapshot, BitSet enabled)
+	{
+		super();
+		this.snapshot = snapshot;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return the Evaluations used when there are no toggles to evaluate. Every lookup answers its default value.
+	 */
+	public static Evaluations empty()
+	{
+		return EMPTY;
+	}
+
+	/**
+	 * Decode evaluations previously encoded with toHeaderValue().
+	 * 
+	 * @param headerValue an encoded header value. Possibly null.
+	 * @param snapshot the snapshot to interpret the value against. Possibly null.
+	 * @return the decoded Evaluations, or null if the value is malformed or was produced from a snapshot with
+	 * a different set of features.
+	 */
+	public static Evaluations fromHeaderValue(String headerValue, TogglesSnapshot snapshot)
+	{
+		if (headerValue == null || snapshot == null) return null;
+
+		int separator = headerValue.indexOf(SEPARATOR);
+
+		if (separator <= 0) return null;
+
+		try
+		{
+			if (Integer.parseUnsignedInt(headerValue.substring(0, separator), 16) != snapshot.getLayoutId()) return null;
+
+			BitSet bits = BitSet.valueOf(Base64.getUrlDecoder().decode(headerValue.substring(separator + 1)));
+			return (bits.length() <= snapshot.size() ? new Evaluations(snapshot, bits) : null);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Answer whether the named feature evaluated to enabled.
+	 * 
+	 * @param name the name of the feature.
+	 * @param defaultValue the value to return if the feature wasn't evaluated.
+	 * @return true if the feature is enabled.
+	 */
+	public boolean isEnabled(String name, boolean defaultValue)
+	{
+		if (snapshot == null) return defaultValue;
+
+		int slot = snapshot.slotOf(name);
+		return (slot >= 0 ? enabled.get(slot) : defaultValue);
+	}
+
+	public boolean isEnabled(String name)
+	{
+		return isEnabled(name, false);
+	}
+
+	/**
+	 * @param slot a slot index from the snapshot that was evaluated.
+	 * @return true if the feature in that slot is enabled.
+	 */
+	public boolean isEnabled(int slot)
+	{
+		return enabled.get(slot);
+	}
+
+	/**
+	 * @return the number of features evaluated.
+	 */
+	public int size()
+	{
+		return (snapshot != null ? snapshot.size() : 0);
+	}
+
+	/**
+	 * @return the names of the enabled features, in slot order.
+	 */
+	public List<String> getEnabledFeatures()
+	{
+		if (snapshot == null) return Collections.emptyList();
+
+		List<String> names = new ArrayList<>(enabled.cardinality());
+
+		for (int slot = enabled.nextSetBit(0); slot >= 0; slot = enabled.nextSetBit(slot + 1))
+		{
+			names.add(snapshot.getName(slot));
+		}
+
+		return names;
+	}
+
+	/**
+	 * @return a copy of the results, indexed by slot.
+	 */
+	public BitSet toBitSet()
+	{
+		return (BitSet) enabled.clone();
+	}
+
+	/**
+	 * Encode these evaluations compactly for propagation, e.g. as an HTTP header value. The value contains
+	 * only URL-safe characters.
+	 * 
+	 * @return the encoded evaluations, or null if there were no toggles to evaluate.
+	 */
+	public String toHeaderValue()
+	{
+		if (snapshot == null) return null;
+
+		return Integer.toHexString(snapshot.getLayoutId()) + SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(enabled.toByteArray());
+	}
+}
@@ -0,0 +1,213 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.togglize.client.Json;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * A SnapshotStore that keeps the toggles in a local JSON file, so a client can start from the last known toggles
+ * without waiting on the remote API.
+ * <p/>
+ * Writes are atomic: the snapshot is written and synced to a temporary file in the same directory, which is then
+ * renamed over the previous file. Readers (including other processes) see either the old or the new snapshot,
+ * never a partial one, even if the process dies mid-write.
+ * 
+ * @author tfredrich
+ */
+public class FileSnapshotStore
+implements SnapshotStore
+{
+	private Path path;
+
+	public FileSnapshotStore(Path path)
+	{
+		super();
+		this.path = path;
+	}
+
+	/**
+	 * Reads the snapshot from the file.
+	 * 
+	 * @param compiler compiles the feature-activation strategies of the toggles read.
+	 * @return the snapshot, with the fetch time and validators it was written with. Null if the file doesn't exist.
+	 * @throws IOException if the file can't be read or isn't a snapshot.
+	 */
+	@Override
+	public TogglesSnapshot load(StrategyCompiler compiler)
+	throws IOException
+	{
+		byte[] bytes;
+
+		try
+		{
+			bytes = Files.readAllBytes(path);
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+
+		return fromJson(bytes, compiler);
+	}
+
+	/**
+	 * Atomically replaces the file with the given snapshot.
+	 * 
+	 * @param snapshot the snapshot to write. Never null.
+	 * @throws IOException if the snapshot can't be written. The previous file, if any, is left intact.
+	 */
+	@Override
+	public void save(TogglesSnapshot snapshot)
+	throws IOException
+	{
+		byte[] bytes = toJson(snapshot);
+		Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+
+		try
+		{
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+				while (buffer.hasRemaining())
+				{
+					channel.write(buffer);
+				}
+
+				channel.force(true);
+			}
+
+			move(temp);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Serializes a snapshot in this store's file format: the complete toggles plus the fetch time and validators
+	 * needed to revalidate them with the remote API. Useful for stores that hold bytes, e.g. Redis.
+	 * 
+	 * @param snapshot the snapshot to serialize. Never null.
+	 * @return UTF-8 encoded JSON.
+	 * @throws IOException if the snapshot can't be serialized.
+	 */
+	public static byte[] toJson(TogglesSnapshot snapshot)
+	throws IOException
+	{
+		return Json.MAPPER.writeValueAsBytes(new Contents(snapshot));
+	}
+
+	/**
+	 * Deserializes a snapshot serialized by toJson().
+	 * 
+	 * @param bytes UTF-8 encoded JSON.
+	 * @param compiler compiles the feature-activation strategies of the toggles read.
+	 * @return the snapshot. Never null.
+	 * @throws IOException if the bytes don't hold a snapshot.
+	 */
+	public static TogglesSnapshot fromJson(byte[] bytes, StrategyCompiler compiler)
+	throws IOException
+	{
+		Contents contents = readContents(bytes);
+		return new TogglesSnapshot(contents.toggles, contents.fetchedAt, contents.etag, contents.lastModified, compiler);
+	}
+
+	/**
+	 * Deserializes only the toggles of a snapshot serialized by toJson(), without compiling their strategies.
+	 * 
+	 * @param bytes UTF-8 encoded JSON.
+	 * @return the toggles. Never null.
+	 * @throws IOException if the bytes don't hold a snapshot.
+	 */
+	public static StageToggles togglesFromJson(byte[] bytes)
+	throws IOException
+	{
+		return readContents(bytes).toggles;
+	}
+
+	private static Contents readContents(byte[] bytes)
+	throws IOException
+	{
+		Contents contents = Json.MAPPER.readValue(bytes, Contents.class);
+
+		if (contents.toggles == null) throw new IOException("Not a toggles snapshot");
+
+		return contents;
+	}
+
+	public Path getPath()
+	{
+		return path;
+	}
+
+	@Override
+	public String toString()
+	{
+		return path.toString();
+	}
+
+	private void move(Path temp)
+	throws IOException
+	{
+		try
+		{
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * The file format: the complete stage toggles plus what's needed to revalidate them with the remote API.
+	 */
+	private static class Contents
+	{
+		private long fetchedAt;
+		private String etag;
+		private String lastModified;
+		private StageToggles toggles;
+
+		public Contents()
+		{
+			super();
+		}
+
+		public Contents(TogglesSnapshot snapshot)
+		{
+			this();
+			this.fetchedAt = snapshot.getFetchedAt();
+			this.etag = snapshot.getEtag();
+			this.lastModified = snapshot.getLastModified();
+			this.toggles = snapshot.toStageToggles();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * Keeps the toggles on the heap, e.g. so that a TogglesClient re-created within the same JVM starts from the toggles
+ * its predecessor fetched, or to stand in for a remote store in tests. Snapshots are immutable, so nothing is copied.
+ * 
+ * @author tfredrich
+ */
+public class InMemorySnapshotStore
+implements SnapshotStore
+{
+	private volatile TogglesSnapshot snapshot;
+
+	@Override
+	public TogglesSnapshot load(StrategyCompiler compiler)
+	{
+		return snapshot;
+	}
+
+	@Override
+	public void save(TogglesSnapshot snapshot)
+	{
+		this.snapshot = snapshot;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * A TogglesSnapshot shared by every client on a host through a memory-mapped file, so that only one of them
+ * fetches from the remote API. The fetching client (the writer) is whichever holds an exclusive lock on a
+ * companion '.lock' file. If it exits, the OS releases the lock and another client takes over.
+ * <p/>
+ * The file starts with a 32-byte header, followed by the snapshot in the BinarySnapshot encoding:
+ * <pre>
+ * 0: magic:int  4: format:int  8: sequence:long  16: length:int  20: (unused):int  24: checksum:long  32: snapshot
+ * </pre>
+ * The sequence is a seqlock: the writer makes it odd before changing the snapshot and even again afterward.
+ * Readers decode the snapshot straight from the mapping and accept it only if the sequence was even and unchanged
+ * throughout and the CRC-32 checksum matches, otherwise they try again. Mapped buffers offer no memory-ordering
+ * guarantees before Java 9, hence the checksum as well.
+ * <p/>
+ * Readers only decode when the sequence changes, which costs a single read of the mapping. The file grows (and
+ * readers remap it) if a snapshot outgrows it.
+ * 
+ * @author tfredrich
+ */
+public class SharedSnapshotFile
+implements Closeable
+{
+	private static final int MAGIC = 0x54474c53;	// "TGLS"
+	private static final int FORMAT = 1;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int FORMAT_OFFSET = 4;
+	private static final int SEQUENCE_OFFSET = 8;
+	private static final int LENGTH_OFFSET = 16;
+	private static final int CHECKSUM_OFFSET = 24;
+	private static final int HEADER_SIZE = 32;
+	private static final int MIN_SIZE = 64 * 1024;
+	private static final int MAX_READ_ATTEMPTS = 100;
+
+	private Path path;
+	private FileChannel channel;
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private MappedByteBuffer mapping;
+	private long lastSequence;
+
+	public SharedSnapshotFile(Path path)
+	throws IOException
+	{
+		super();
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		this.lockChannel = FileChannel.open(Paths.get(path + ".lock"), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		map(Math.max(channel.size(), HEADER_SIZE));
+	}
+
+	/**
+	 * Tries to become (or confirms this is) the writer for the host. Never blocks.
+	 * 
+	 * @return true if this instance is the writer.
+	 */
+	public synchronized boolean tryAcquireWriter()
+	{
+		if (lock != null && lock.isValid()) return true;
+
+		try
+		{
+			this.lock = lockChannel.tryLock();
+		}
+		catch (OverlappingFileLockException e) // another client in this JVM is the writer.
+		{
+			this.lock = null;
+		}
+		catch (IOException e)
+		{
+			this.lock = null;
+		}
+
+		return (lock != null);
+	}
+
+	/**
+	 * Publishes a snapshot to every reader. Only the writer may call this.
+	 * 
+	 * @param snapshot the snapshot to share. Never null.
+	 * @throws IOException if the file can't be grown to fit the snapshot.
+	 */
+	public synchronized void write(TogglesSnapshot snapshot)
+	throws IOException
+	{
+		if (!tryAcquireWriter()) throw new IllegalStateException("Not the writer for " + path);
+
+		byte[] payload = BinarySnapshot.encode(snapshot);
+
+		if (HEADER_SIZE + payload.length > mapping.capacity())
+		{
+			map(Math.max(mapping.capacity() * 2l, HEADER_SIZE + payload.length));
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(payload);
+
+		// A previous writer may have died mid-write, leaving the sequence odd.
+		long sequence = mapping.getLong(SEQUENCE_OFFSET) | 1l;
+		mapping.putLong(SEQUENCE_OFFSET, sequence);
+		mapping.putInt(MAGIC_OFFSET, MAGIC);
+		mapping.putInt(FORMAT_OFFSET, FORMAT);
+		ByteBuffer body = mapping.duplicate();
+		body.position(HEADER_SIZE);
+		body.put(payload);
+		mapping.putInt(LENGTH_OFFSET, payload.length);
+		mapping.putLong(CHECKSUM_OFFSET, checksum.getValue());
+		mapping.putLong(SEQUENCE_OFFSET, sequence + 1);
+		this.lastSequence = sequence + 1;
+	}
+
+	/**
+	 * Reads the shared snapshot if it has changed since this instance last read or wrote it.
+	 * 
+	 * @param compiler compiles the feature-activation strategies of the toggles read.
+	 * @return the shared snapshot. Null if it hasn't changed, or nothing has been shared yet.
+	 * @throws IOException if a consistent snapshot couldn't be read, e.g. the file is corrupt.
+	 */
+	public synchronized TogglesSnapshot readIfChanged(StrategyCompiler compiler)
+	throws IOException
+	{
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++)
+		{
+			long sequence = mapping.getLong(SEQUENCE_OFFSET);
+
+			if (sequence == lastSequence || (sequence == 0l && mapping.getInt(MAGIC_OFFSET) != MAGIC)) return null;
+
+			if ((sequence & 1l) == 0l)
+			{
+				TogglesSnapshot snapshot = tryRead(compiler);
+
+				if (snapshot != null && mapping.getLong(SEQUENCE_OFFSET) == sequence)
+				{
+					this.lastSequence = sequence;
+					return snapshot;
+				}
+			}
+
+			Thread.yield();
+		}
+
+		throw new IOException("Unable to read a consistent snapshot from " + path);
+	}
+
+	private TogglesSnapshot tryRead(StrategyCompiler compiler)
+	throws IOException
+	{
+		if (mapping.getInt(MAGIC_OFFSET) != MAGIC || mapping.getInt(FORMAT_OFFSET) != FORMAT) return null;
+
+		int length = mapping.getInt(LENGTH_OFFSET);
+
+		if (length < 0) return null;
+
+		// The writer grew the file for a larger snapshot.
+		if (HEADER_SIZE + length > mapping.capacity())
+		{
+			if (HEADER_SIZE + length > channel.size()) return null;
+
+			map(channel.size());
+		}
+
+		ByteBuffer body = mapping.duplicate();
+		body.position(HEADER_SIZE);
+		body.limit(HEADER_SIZE + length);
+		CRC32 checksum = new CRC32();
+		checksum.update(body.duplicate());
+
+		if (checksum.getValue() != mapping.getLong(CHECKSUM_OFFSET)) return null;
+
+		try
+		{
+			return BinarySnapshot.decode(body, compiler);
+		}
+		catch (IllegalArgumentException e) // torn by a concurrent write.
+		{
+			return null;
+		}
+	}
+
+	private void map(long size)
+	throws IOException
+	{
+		this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0l, Math.max(size, MIN_SIZE));
+	}
+
+	public Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Releases the writer role, if held, and the file. The mapping itself is released when garbage collected.
+	 */
+	@Override
+	public synchronized void close()
+	throws IOException
+	{
+		try
+		{
+			if (lock != null) lock.release();
+		}
+		finally
+		{
+			lockChannel.close();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.io.IOException;
+
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * Keeps a copy of the toggles outside the client, so it can start with accurate answers before (or without) reaching
+ * the remote API. Implement this to keep the toggles in Redis, a database or the like, and register the implementation
+ * via TogglesConfiguration.setSnapshotStore().
+ * <p/>
+ * Implementations needn't be fast: the client saves through a WriteBehindSnapshotStore, on its own thread, and only
+ * loads on startup. They must be thread-safe. FileSnapshotStore.toJson() and fromJson() provide a serialized form for
+ * stores that hold bytes or strings.
+ * 
+ * @author tfredrich
+ */
+public interface SnapshotStore
+{
+	/**
+	 * Load the most-recently saved toggles.
+	 * 
+	 * @param compiler compiles the feature-activation strategies of the toggles loaded.
+	 * @return the saved snapshot, with the fetch time and validators it was saved with. Null if nothing has been saved.
+	 * @throws IOException if the toggles can't be loaded.
+	 */
+	TogglesSnapshot load(StrategyCompiler compiler)
+	throws IOException;
+
+	/**
+	 * Save the toggles, replacing any saved previously.
+	 * 
+	 * @param snapshot the snapshot to save. Never null.
+	 * @throws IOException if the toggles can't be saved.
+	 */
+	void save(TogglesSnapshot snapshot)
+	throws IOException;
+}
@@ -0,0 +1,444 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.Stage;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+import com.togglize.client.strategy.Murmur3;
+import com.togglize.client.strategy.StrategyCompiler;
+import com.togglize.client.strategy.StrategyEvaluator;
+
+/**
+ * An immutable, point-in-time view of the feature toggles for a stage. A snapshot is built once per successful
+ * fetch and then published by reference, so readers never lock, copy or allocate.
+ * <p/>
+ * Each feature occupies a slot (an index into parallel arrays), assigned in feature-name order. Looking up a
+ * feature's slot once via slotOf() allows later evaluations to skip hashing the name altogether.
+ * <p/>
+ * Feature-activation strategies are compiled when the snapshot is built, so evaluating a feature against a
+ * TogglesContext involves no parsing or parameter lookups.
+ * 
+ * @author tfredrich
+ */
+public class TogglesSnapshot
+{
+	private final Stage stage;
+	private final String[] names;
+	private final FeatureToggle[] toggles;
+	private final boolean[] enabled;
+	private final StrategyEvaluator[] strategies;
+	private final Map<String, Integer> slots;
+	private final int layoutId;
+	private final long fetchedAt;
+	private final String version;
+	private final String etag;
+	private final String lastModified;
+
+	/**
+	 * Create a new snapshot from the fetched stage toggles.
+	 * 
+	 * @param toggles the stage toggles as retrieved from the remote API. Never null.
+	 * @param fetchedAt the time, in milliseconds since the epoch, the toggles were retrieved.
+	 * @param compiler compiles the feature-activation strategies of each toggle.
+	 */
+	public TogglesSnapshot(StageToggles toggles, long fetchedAt, StrategyCompiler compiler)
+	{
+		this(toggles, fetchedAt, null, null, compiler);
+	}
+
+	/**
+	 * Create a new snapshot from the fetched stage toggles, remembering the HTTP cache validators from the response
+	 * so the next fetch can be made conditional.
+	 * 
+	 * @param toggles the stage toggles as retrieved from the remote API. Never null.
+	 * @param fetchedAt the time, in milliseconds since the epoch, the toggles were retrieved.
+	 * @param etag the ETag response header. Possibly null.
+	 * @param lastModified the Last-Modified response header. Possibly null.
+	 * @param compiler compiles the feature-activation strategies of each toggle.
+	 */
+	public TogglesSnapshot(StageToggles toggles, long fetchedAt, String etag, String lastModified, StrategyCompiler compiler)
+	{
+		this(toggles.getStage(), toggles.getVersion(), sortedNames(toggles.getFeatures().keySet()), toggles.getFeatures(),
+			null, fetchedAt, etag, lastModified, compiler);
+	}
+
+	/**
+	 * Builds the slots for the given feature names. Features in the 'changed' map are (re)compiled; any others are
+	 * carried over from the previous snapshot, sharing their already-compiled strategies.
+	 */
+	private TogglesSnapshot(Stage stage, String version, String[] names, Map<String, FeatureToggle> changed,
+		TogglesSnapshot previous, long fetchedAt, String etag, String lastModified, StrategyCompiler compiler)
+	{
+		super();
+		this.stage = stage;
+		this.version = version;
+		this.fetchedAt = fetchedAt;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.names = names;
+		this.toggles = new FeatureToggle[names.length];
+		this.enabled = new boolean[names.length];
+		this.strategies = new StrategyEvaluator[names.length];
+		this.slots = new HashMap<>(names.length * 2);
+		int layout = names.length;
+
+		for (int slot = 0; slot < names.length; slot++)
+		{
+			layout = Murmur3.hash32(names[slot], layout);
+			int previousSlot = (previous != null && !changed.containsKey(names[slot]) ? previous.slotOf(names[slot]) : -1);
+
+			if (previousSlot >= 0)
+			{
+				this.toggles[slot] = previous.toggles[previousSlot];
+				this.enabled[slot] = previous.enabled[previousSlot];
+				this.strategies[slot] = previous.strategies[previousSlot];
+			}
+			else
+			{
+				FeatureToggle toggle = changed.get(names[slot]);
+				this.toggles[slot] = toggle;
+				this.enabled[slot] = (toggle != null && toggle.isEnabled());
+
+				if (enabled[slot])
+				{
+					this.strategies[slot] = compiler.compile(names[slot], toggle.getStrategies());
+				}
+			}
+
+			this.slots.put(names[slot], slot);
+		}
+
+		this.layoutId = layout;
+	}
+
+	/**
+	 * Copies an existing snapshot, sharing all of its (immutable) state except the fetch time.
+	 */
+	private TogglesSnapshot(TogglesSnapshot source, long fetchedAt)
+	{
+		super();
+		this.stage = source.stage;
+		this.names = source.names;
+		this.toggles = source.toggles;
+		this.enabled = source.enabled;
+		this.strategies = source.strategies;
+		this.slots = source.slots;
+		this.layoutId = source.layoutId;
+		this.version = source.version;
+		this.etag = source.etag;
+		this.lastModified = source.lastModified;
+		this.fetchedAt = fetchedAt;
+	}
+
+	/**
+	 * Returns this snapshot with its freshness extended, e.g. after the remote API confirmed the toggles haven't
+	 * changed. Nothing is copied or recompiled.
+	 * 
+	 * @param fetchedAt the time, in milliseconds since the epoch, the toggles were confirmed current.
+	 * @return a new snapshot sharing this one's toggles.
+	 */
+	public TogglesSnapshot withFetchedAt(long fetchedAt)
+	{
+		return new TogglesSnapshot(this, fetchedAt);
+	}
+
+	/**
+	 * Applies a delta, containing only the features added, changed or removed since this snapshot's version, to
+	 * produce a new snapshot. This snapshot is left untouched. Features the delta doesn't mention keep their
+	 * already-compiled strategies, so only the changed features are compiled.
+	 * 
+	 * @param delta the changes since this snapshot's version, as retrieved from the remote API. Never null.
+	 * @param fetchedAt the time, in milliseconds since the epoch, the delta was retrieved.
+	 * @param etag the ETag response header. Possibly null.
+	 * @param lastModified the Last-Modified response header. Possibly null.
+	 * @param compiler compiles the feature-activation strategies of the changed toggles.
+	 * @return a new snapshot with the changes applied.
+	 */
+	public TogglesSnapshot applyDelta(StageToggles delta, long fetchedAt, String etag, String lastModified, StrategyCompiler compiler)
+	{
+		Map<String, FeatureToggle> changed = delta.getFeatures();
+		Set<String> merged = new HashSet<>(Arrays.asList(names));
+		merged.removeAll(delta.getRemoved());
+		merged.addAll(changed.keySet());
+		Stage newStage = (delta.getStage() != null ? delta.getStage() : stage);
+		return new TogglesSnapshot(newStage, delta.getVersion(), sortedNames(merged), changed, this, fetchedAt, etag, lastModified, compiler);
+	}
+
+	/**
+	 * Returns the complete set of toggles in this snapshot, e.g. to persist it. Deltas already applied are included.
+	 * 
+	 * @return new StageToggles, in feature-name order. Never a delta.
+	 */
+	public StageToggles toStageToggles()
+	{
+		Map<String, FeatureToggle> features = new LinkedHashMap<>(names.length * 2);
+
+		for (int i = 0; i < names.length; i++)
+		{
+			features.put(names[i], toggles[i]);
+		}
+
+		return new StageToggles(stage, features, version, false, null);
+	}
+
+	private static String[] sortedNames(Collection<String> names)
+	{
+		String[] sorted = names.toArray(new String[names.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	public Stage getStage()
+	{
+		return stage;
+	}
+
+	/**
+	 * @return the server-assigned version of these toggles. Possibly null.
+	 */
+	public String getVersion()
+	{
+		return version;
+	}
+
+	public long getFetchedAt()
+	{
+		return fetchedAt;
+	}
+
+	/**
+	 * @return the ETag the remote API sent with these toggles. Possibly null.
+	 */
+	public String getEtag()
+	{
+		return etag;
+	}
+
+	/**
+	 * @return the Last-Modified date the remote API sent with these toggles. Possibly null.
+	 */
+	public String getLastModified()
+	{
+		return lastModified;
+	}
+
+	/**
+	 * Answer whether this snapshot holds the same toggles as another, e.g. to tell a change from a revalidation.
+	 * Compares the server-assigned versions, or failing that the ETags, when both snapshots have one. Otherwise
+	 * compares the toggles themselves: each feature's name, enabled flag and strategies.
+	 * 
+	 * @param other another snapshot. Possibly null.
+	 * @return true if the toggles are the same.
+	 */
+	public boolean hasSameToggles(TogglesSnapshot other)
+	{
+		if (other == null) return false;
+		if (toggles == other.toggles) return true;
+		if (version != null && other.version != null) return version.equals(other.version);
+		if (etag != null && other.etag != null) return etag.equals(other.etag);
+
+		return hasSameContent(other);
+	}
+
+	/**
+	 * Without validators to go on, e.g. when the remote API sends neither a version nor an ETag, compares everything
+	 * that evaluation depends on. Toggles carried over from a previous snapshot are compared by reference.
+	 */
+	private boolean hasSameContent(TogglesSnapshot other)
+	{
+		if (!Arrays.equals(names, other.names) || !Arrays.equals(enabled, other.enabled)) return false;
+
+		for (int slot = 0; slot < toggles.length; slot++)
+		{
+			if (toggles[slot] == other.toggles[slot]) continue;
+			if (toggles[slot] == null || other.toggles[slot] == null) return false;
+			if (!hasSameStrategies(toggles[slot].getStrategies(), other.toggles[slot].getStrategies())) return false;
+		}
+
+		return true;
+	}
+
+	private static boolean hasSameStrategies(Collection<Strategy> these, Collection<Strategy> those)
+	{
+		if (these == null || these.isEmpty()) return (those == null || those.isEmpty());
+		if (those == null || these.size() != those.size()) return false;
+
+		Iterator<Strategy> others = those.iterator();
+
+		for (Strategy strategy : these)
+		{
+			Strategy other = others.next();
+
+			if (!Objects.equals(strategy.getName(), other.getName())
+				|| !Objects.equals(strategy.getParameters(), other.getParameters())) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Answer whether this snapshot is older than the given time-to-live.
+	 * 
+	 * @param now the current time in milliseconds.
+	 * @param ttlMillis the time-to-live for a snapshot in milliseconds.
+	 * @return true if the snapshot should be refreshed.
+	 */
+	public boolean isExpired(long now, long ttlMillis)
+	{
+		return (now - fetchedAt > ttlMillis);
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * Identifies the set of feature names, and therefore the slot assignments, in this snapshot. Snapshots of
+	 * the same features have the same layout ID in any JVM.
+	 * 
+	 * @return a hash of the feature names in slot order.
+	 */
+	public int getLayoutId()
+	{
+		return layoutId;
+	}
+
+	/**
+	 * Returns the slot occupied by the named feature in this snapshot. Slots are only meaningful for the snapshot
+	 * that assigned them.
+	 * 
+	 * @param name the name of a feature toggle.
+	 * @return the slot index for the feature, or -1 if the feature doesn't exist in this snapshot.
+	 */
+	public int slotOf(String name)
+	{
+		Integer slot = slots.get(name);
+		return (slot != null ? slot : -1);
+	}
+
+	public String getName(int slot)
+	{
+		return names[slot];
+	}
+
+	public FeatureToggle getFeatureToggle(String name)
+	{
+		int slot = slotOf(name);
+		return (slot >= 0 ? toggles[slot] : null);
+	}
+
+	/**
+	 * Answer whether the feature in the given slot is enabled for the context, evaluating its activation strategies.
+	 * 
+	 * @param slot a slot index as returned by slotOf().
+	 * @param context contextual values to test against feature-activation strategies. Possibly null.
+	 * @return true if the feature is enabled.
+	 */
+	public boolean isEnabled(int slot, TogglesContext context)
+	{
+		StrategyEvaluator strategy = strategies[slot];
+		return (strategy == null ? enabled[slot] : strategy.evaluate(context));
+	}
+
+	/**
+	 * Answer whether the named feature is enabled for the context, returning the default value if the feature is not in this snapshot.
+	 * 
+	 * @param name the name of the feature toggle to check.
+	 * @param context contextual values to test against feature-activation strategies. Possibly null.
+	 * @param defaultValue the value to return if the named feature doesn't exist.
+	 * @return true or false showing the status of the feature toggle.
+	 */
+	public boolean isEnabled(String name, TogglesContext context, boolean defaultValue)
+	{
+		int slot = slotOf(name);
+		return (slot >= 0 ? isEnabled(slot, context) : defaultValue);
+	}
+
+	/**
+	 * Evaluate every feature in this snapshot for the context in a single pass.
+	 * 
+	 * @param context contextual values to test against feature-activation strategies. Possibly null.
+	 * @return the results, indexed by slot. Never null.
+	 */
+	public Evaluations evaluateAll(TogglesContext context)
+	{
+		long[] words = new long[(names.length + 63) >>> 6];
+
+		for (int slot = 0; slot < names.length; slot++)
+		{
+			if (isEnabled(slot, context))
+			{
+				words[slot >>> 6] |= 1l << slot;
+			}
+		}
+
+		return new Evaluations(this, BitSet.valueOf(words));
+	}
+
+	/**
+	 * Evaluate a single feature for many contexts. The feature and its strategies are resolved once, then the
+	 * contexts are evaluated in a tight loop, optionally split across a ForkJoinPool for large batches.
+	 * 
+	 * @param name the name of the feature toggle to check.
+	 * @param contexts the contexts to evaluate. Never null, but elements may be null.
+	 * @param defaultValue the result for every context if the named feature doesn't exist.
+	 * @param pool a ForkJoinPool to evaluate large batches in parallel. Null to evaluate on the calling thread.
+	 * @return a BitSet with the bit at each context's index set if the feature is enabled for that context.
+	 */
+	public BitSet evaluateBatch(String name, TogglesContext[] contexts, boolean defaultValue, ForkJoinPool pool)
+	{
+		int slot = slotOf(name);
+		boolean constant = (slot >= 0 ? enabled[slot] : defaultValue);
+		StrategyEvaluator strategy = (slot >= 0 ? strategies[slot] : null);
+
+		if (strategy == null)
+		{
+			BitSet results = new BitSet(contexts.length);
+			if (constant) results.set(0, contexts.length);
+			return results;
+		}
+
+		long[] words = new long[(contexts.length + 63) >>> 6];
+		BatchEvaluation evaluation = new BatchEvaluation(strategy, contexts, words, 0, contexts.length);
+
+		if (pool != null && contexts.length > BatchEvaluation.MIN_SPLIT_SIZE)
+		{
+			pool.invoke(evaluation);
+		}
+		else
+		{
+			evaluation.evaluate();
+		}
+
+		return BitSet.valueOf(words);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.strategy.StrategyCompiler;
+
+/**
+ * Saves to another SnapshotStore on a background thread, so that persisting toggles never delays the client from
+ * swapping in a new snapshot. Saves are batched: only the latest snapshot saved during the write delay is written,
+ * so a burst of changes (e.g. a rollout) costs one write. Failed writes are logged and dropped; the next save
+ * writes the latest snapshot anyway.
+ * 
+ * @author tfredrich
+ */
+public class WriteBehindSnapshotStore
+implements SnapshotStore, Closeable
+{
+	private static final Logger LOG = LogManager.getLogger(WriteBehindSnapshotStore.class);
+
+	private static final String THREAD_NAME = "toggles-snapshot-writer";
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000l;
+
+	private SnapshotStore store;
+	private long writeDelayMillis;
+	private ScheduledThreadPoolExecutor writer;
+	private final AtomicReference<TogglesSnapshot> pending = new AtomicReference<>();
+
+	public WriteBehindSnapshotStore(SnapshotStore store, long writeDelayMillis)
+	{
+		super();
+		this.store = store;
+		this.writeDelayMillis = writeDelayMillis;
+		this.writer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, THREAD_NAME);
+			t.setDaemon(true);
+			return t;
+		});
+
+		// On close, a write that hasn't started yet is done by close() itself instead of waiting out its delay.
+		writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Loads from the underlying store, unless a save is still pending, in which case that snapshot is returned.
+	 */
+	@Override
+	public TogglesSnapshot load(StrategyCompiler compiler)
+	throws IOException
+	{
+		TogglesSnapshot unsaved = pending.get();
+		return (unsaved != null ? unsaved : store.load(compiler));
+	}
+
+	/**
+	 * Queues the snapshot to be saved after the write delay, replacing any snapshot still waiting. Never blocks.
+	 */
+	@Override
+	public void save(TogglesSnapshot snapshot)
+	{
+		// Only the first save of a batch schedules the write.
+		if (pending.getAndSet(snapshot) != null) return;
+
+		try
+		{
+			writer.schedule(this::flush, writeDelayMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) // closed.
+		{
+			pending.set(null);
+		}
+	}
+
+	/**
+	 * Writes the pending snapshot, if any, to the underlying store on the calling thread.
+	 */
+	public void flush()
+	{
+		TogglesSnapshot snapshot = pending.getAndSet(null);
+
+		if (snapshot == null) return;
+
+		try
+		{
+			store.save(snapshot);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.warn("Unable to save toggles to " + store, e);
+		}
+	}
+
+	/**
+	 * Stops the background thread, letting a write already in progress finish (for up to a few seconds), then
+	 * writes any snapshot still pending.
+	 */
+	@Override
+	public void close()
+	{
+		writer.shutdown();
+
+		try
+		{
+			if (!writer.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+			{
+				LOG.warn("Timed out waiting for a save to " + store + " to finish");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+	}
+}
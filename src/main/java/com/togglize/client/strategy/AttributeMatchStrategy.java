@@ -0,0 +1,63 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.togglize.client.TogglesContext;
+
+/**
+ * Activates a feature when a context attribute has one of a set of values. The 'attribute' parameter names
+ * the attribute (see ContextAttribute) and 'values' is a comma-separated list of accepted values.
+ * 
+ * @author tfredrich
+ */
+public class AttributeMatchStrategy
+implements StrategyEvaluator
+{
+	public static final String NAME = "attributeMatch";
+	public static final String ATTRIBUTE = "attribute";
+	public static final String VALUES = "values";
+
+	public static final StrategyFactory FACTORY = new StrategyFactory()
+	{
+		@Override
+		public StrategyEvaluator newEvaluator(String featureName, Map<String, String> parameters)
+		{
+			return new AttributeMatchStrategy(ContextAttribute.named(parameters.get(ATTRIBUTE)), StrategyCompiler.parseList(parameters.get(VALUES)));
+		}
+	};
+
+	private final ContextAttribute attribute;
+	private final Set<String> values;
+
+	public AttributeMatchStrategy(ContextAttribute attribute, Set<String> values)
+	{
+		super();
+		this.attribute = attribute;
+		this.values = values;
+	}
+
+	@Override
+	public boolean evaluate(TogglesContext context)
+	{
+		if (context == null) return false;
+
+		String value = attribute.valueOf(context);
+		return (value != null && values.contains(value));
+	}
+}
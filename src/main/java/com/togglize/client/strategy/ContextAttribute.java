@@ -0,0 +1,66 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.User;
+
+/**
+ * Reads a single named value from a TogglesContext. The attribute "userId" reads the ID of the context's
+ * User. Any other name reads the context value of that name.
+ * 
+ * @author tfredrich
+ */
+public abstract class ContextAttribute
+{
+	public static final String USER_ID = "userId";
+
+	private static final ContextAttribute USER_ID_ATTRIBUTE = new ContextAttribute()
+	{
+		@Override
+		public String valueOf(TogglesContext context)
+		{
+			User user = context.getUser();
+			return (user != null ? user.getId() : null);
+		}
+	};
+
+	/**
+	 * Returns an accessor for the named attribute.
+	 * 
+	 * @param name the attribute name. If null or empty, the user ID is assumed.
+	 * @return a ContextAttribute. Never null.
+	 */
+	public static ContextAttribute named(final String name)
+	{
+		if (name == null || name.isEmpty() || USER_ID.equals(name)) return USER_ID_ATTRIBUTE;
+
+		return new ContextAttribute()
+		{
+			@Override
+			public String valueOf(TogglesContext context)
+			{
+				return context.get(name);
+			}
+		};
+	}
+
+	/**
+	 * @param context a TogglesContext. Never null.
+	 * @return the attribute value from the context. Possibly null.
+	 */
+	public abstract String valueOf(TogglesContext context);
+}
@@ -0,0 +1,140 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+/**
+ * The 32-bit MurmurHash3 (x86 variant) of a string's UTF-8 encoding, computed directly from its chars
+ * without allocating a byte[]. Results match any MurmurHash3_x86_32 implementation given the same UTF-8
+ * bytes and seed, so they are stable across JVMs, hosts and client languages.
+ * 
+ * @author tfredrich
+ */
+public final class Murmur3
+{
+	private static final int C1 = 0xcc9e2d51;
+	private static final int C2 = 0x1b873593;
+
+	// Java encodes unpaired surrogates as '?' in UTF-8.
+	private static final int REPLACEMENT = '?';
+
+	private Murmur3()
+	{
+		super();
+	}
+
+	/**
+	 * Hash the UTF-8 encoding of the value.
+	 * 
+	 * @param value the string to hash. Never null.
+	 * @param seed the hash seed.
+	 * @return the 32-bit hash.
+	 */
+	public static int hash32(String value, int seed)
+	{
+		int h1 = seed;
+		int k1 = 0;		// Bytes of the current, partial 4-byte block.
+		int shift = 0;	// Bit position for the next byte in k1.
+		int length = 0;	// Total number of encoded bytes.
+		int count = value.length();
+
+		for (int i = 0; i < count; i++)
+		{
+			int c = value.charAt(i);
+			int bytes;		// Up to four encoded bytes, first byte in the low 8 bits.
+			int size;
+
+			if (c < 0x80)
+			{
+				bytes = c;
+				size = 1;
+			}
+			else if (c < 0x800)
+			{
+				bytes = (0xc0 | (c >>> 6))
+					| ((0x80 | (c & 0x3f)) << 8);
+				size = 2;
+			}
+			else if (!Character.isSurrogate((char) c))
+			{
+				bytes = (0xe0 | (c >>> 12))
+					| ((0x80 | ((c >>> 6) & 0x3f)) << 8)
+					| ((0x80 | (c & 0x3f)) << 16);
+				size = 3;
+			}
+			else if (Character.isHighSurrogate((char) c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1)))
+			{
+				int cp = Character.toCodePoint((char) c, value.charAt(++i));
+				bytes = (0xf0 | (cp >>> 18))
+					| ((0x80 | ((cp >>> 12) & 0x3f)) << 8)
+					| ((0x80 | ((cp >>> 6) & 0x3f)) << 16)
+					| ((0x80 | (cp & 0x3f)) << 24);
+				size = 4;
+			}
+			else
+			{
+				bytes = REPLACEMENT;
+				size = 1;
+			}
+
+			for (int b = 0; b < size; b++, bytes >>>= 8)
+			{
+				k1 |= (bytes & 0xff) << shift;
+				shift += 8;
+
+				if (shift == 32)
+				{
+					h1 = mixH1(h1, mixK1(k1));
+					k1 = 0;
+					shift = 0;
+				}
+			}
+
+			length += size;
+		}
+
+		if (shift > 0)
+		{
+			h1 ^= mixK1(k1);
+		}
+
+		return fmix(h1, length);
+	}
+
+	private static int mixK1(int k1)
+	{
+		k1 *= C1;
+		k1 = Integer.rotateLeft(k1, 15);
+		return k1 * C2;
+	}
+
+	private static int mixH1(int h1, int k1)
+	{
+		h1 ^= k1;
+		h1 = Integer.rotateLeft(h1, 13);
+		return h1 * 5 + 0xe6546b64;
+	}
+
+	private static int fmix(int h1, int length)
+	{
+		h1 ^= length;
+		h1 ^= h1 >>> 16;
+		h1 *= 0x85ebca6b;
+		h1 ^= h1 >>> 13;
+		h1 *= 0xc2b2ae35;
+		h1 ^= h1 >>> 16;
+		return h1;
+	}
+}
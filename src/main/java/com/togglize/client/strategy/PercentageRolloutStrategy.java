@@ -0,0 +1,92 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import java.util.Map;
+
+import com.togglize.client.TogglesContext;
+
+/**
+ * Activates a feature for a stable percentage of users. The 'percentage' parameter (0-100, in steps of 0.01)
+ * sets the share of users included. The optional 'stickiness' parameter names the context attribute to bucket on (see
+ * ContextAttribute), defaulting to the user ID. The optional 'groupId' parameter defaults to the feature name;
+ * features sharing a groupId include the same users.
+ * <p/>
+ * Each value is assigned to one of 10,000 buckets by the MurmurHash3 of its UTF-8 encoding, seeded by the hash
+ * of the groupId. The assignment depends only on the value and groupId, so every client instance, on every host,
+ * makes the same decision for the same user.
+ * 
+ * @author tfredrich
+ */
+public class PercentageRolloutStrategy
+implements StrategyEvaluator
+{
+	public static final String NAME = "gradualRollout";
+	public static final String PERCENTAGE = "percentage";
+	public static final String STICKINESS = "stickiness";
+	public static final String GROUP_ID = "groupId";
+
+	public static final int BUCKETS = 10000;
+
+	public static final StrategyFactory FACTORY = new StrategyFactory()
+	{
+		@Override
+		public StrategyEvaluator newEvaluator(String featureName, Map<String, String> parameters)
+		{
+			String groupId = parameters.get(GROUP_ID);
+			return new PercentageRolloutStrategy(
+				(groupId != null ? groupId : featureName),
+				StrategyCompiler.parsePercentage(parameters.get(PERCENTAGE)),
+				ContextAttribute.named(parameters.get(STICKINESS)));
+		}
+	};
+
+	private final int seed;
+	private final int threshold;
+	private final ContextAttribute attribute;
+
+	/**
+	 * @param groupId the value that seeds the bucketing.
+	 * @param percentage the percentage of users (0-100) to include.
+	 * @param attribute the context attribute to bucket on.
+	 */
+	public PercentageRolloutStrategy(String groupId, double percentage, ContextAttribute attribute)
+	{
+		super();
+		this.seed = Murmur3.hash32(groupId, 0);
+		this.threshold = (int) Math.round(percentage * BUCKETS / 100d);
+		this.attribute = attribute;
+	}
+
+	@Override
+	public boolean evaluate(TogglesContext context)
+	{
+		if (threshold >= BUCKETS) return true;
+		if (threshold <= 0 || context == null) return false;
+
+		String value = attribute.valueOf(context);
+		return (value != null && bucketOf(value) < threshold);
+	}
+
+	/**
+	 * @param value a context value to bucket.
+	 * @return the bucket for the value, between 0 and 9999 inclusive.
+	 */
+	public int bucketOf(String value)
+	{
+		return Integer.remainderUnsigned(Murmur3.hash32(value, seed), BUCKETS);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.Strategy;
+
+/**
+ * Turns the Strategy definitions of a feature toggle into a single StrategyEvaluator, once, when a toggles
+ * snapshot is built. A feature with activation strategies is active if any one of its strategies is satisfied.
+ * <p/>
+ * Built-in strategies are 'default' (always active), 'userWithId', 'gradualRollout' and 'attributeMatch'.
+ * Strategies with unregistered names are never satisfied.
+ * 
+ * @author tfredrich
+ */
+public class StrategyCompiler
+{
+	private static final Logger LOG = LogManager.getLogger(StrategyCompiler.class);
+
+	public static final String DEFAULT_STRATEGY = "default";
+
+	private static final StrategyEvaluator NEVER = new StrategyEvaluator()
+	{
+		@Override
+		public boolean evaluate(TogglesContext context)
+		{
+			return false;
+		}
+	};
+
+	private Map<String, StrategyFactory> factories = new ConcurrentHashMap<>();
+
+	public StrategyCompiler()
+	{
+		super();
+		register(UserIdStrategy.NAME, UserIdStrategy.FACTORY);
+		register(PercentageRolloutStrategy.NAME, PercentageRolloutStrategy.FACTORY);
+		register(AttributeMatchStrategy.NAME, AttributeMatchStrategy.FACTORY);
+	}
+
+	/**
+	 * Register a factory for strategies of the given name, replacing any existing one.
+	 * 
+	 * @param name the strategy name, as defined in the Nifli console.
+	 * @param factory a StrategyFactory. Never null.
+	 * @return this StrategyCompiler for method chaining.
+	 */
+	public StrategyCompiler register(String name, StrategyFactory factory)
+	{
+		factories.put(name, factory);
+		return this;
+	}
+
+	/**
+	 * Compile the strategies of a feature.
+	 * 
+	 * @param featureName the name of the feature the strategies belong to.
+	 * @param strategies the feature's strategies. Possibly null.
+	 * @return a StrategyEvaluator, or null if the feature is unconditionally active (i.e. it has no strategies or
+	 * includes the default strategy).
+	 */
+	public StrategyEvaluator compile(String featureName, Collection<Strategy> strategies)
+	{
+		if (strategies == null || strategies.isEmpty()) return null;
+
+		List<StrategyEvaluator> evaluators = new ArrayList<>(strategies.size());
+
+		for (Strategy strategy : strategies)
+		{
+			if (DEFAULT_STRATEGY.equals(strategy.getName())) return null;
+
+			evaluators.add(compile(featureName, strategy));
+		}
+
+		if (evaluators.size() == 1) return evaluators.get(0);
+
+		return new AnyOf(evaluators.toArray(new StrategyEvaluator[evaluators.size()]));
+	}
+
+	private StrategyEvaluator compile(String featureName, Strategy strategy)
+	{
+		StrategyFactory factory = factories.get(strategy.getName());
+
+		if (factory == null)
+		{
+			LOG.warn(String.format("Unknown strategy '%s' on feature '%s'. It will never be satisfied.", strategy.getName(), featureName));
+			return NEVER;
+		}
+
+		try
+		{
+			Map<String, String> parameters = strategy.getParameters();
+			return factory.newEvaluator(featureName, (parameters != null ? parameters : Collections.emptyMap()));
+		}
+		catch (RuntimeException e)
+		{
+			LOG.warn(String.format("Invalid strategy '%s' on feature '%s'. It will never be satisfied.", strategy.getName(), featureName), e);
+			return NEVER;
+		}
+	}
+
+	/**
+	 * Parses a comma-separated parameter value into a set of trimmed, non-empty values.
+	 * 
+	 * @param value a comma-separated list. Possibly null.
+	 * @return a Set of values. Never null.
+	 */
+	public static Set<String> parseList(String value)
+	{
+		if (value == null) return Collections.emptySet();
+
+		Set<String> values = new HashSet<>();
+
+		for (String item : value.split(","))
+		{
+			String trimmed = item.trim();
+
+			if (!trimmed.isEmpty())
+			{
+				values.add(trimmed);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Parses a percentage parameter, clamping it to the range 0-100.
+	 * 
+	 * @param value a numeric string. Possibly null, which is zero percent.
+	 * @return a percentage between 0 and 100 inclusive.
+	 */
+	public static double parsePercentage(String value)
+	{
+		if (value == null || value.trim().isEmpty()) return 0d;
+
+		return Math.max(0d, Math.min(100d, Double.parseDouble(value.trim())));
+	}
+
+	private static class AnyOf
+	implements StrategyEvaluator
+	{
+		private final StrategyEvaluator[] evaluators;
+
+		private AnyOf(StrategyEvaluator[] evaluators)
+		{
+			super();
+			this.evaluators = evaluators;
+		}
+
+		@Override
+		public boolean evaluate(TogglesContext context)
+		{
+			for (StrategyEvaluator evaluator : evaluators)
+			{
+				if (evaluator.evaluate(context)) return true;
+			}
+
+			return false;
+		}
+	}
+}
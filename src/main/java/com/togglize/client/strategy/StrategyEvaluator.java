@@ -0,0 +1,35 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import com.togglize.client.TogglesContext;
+
+/**
+ * A feature-activation strategy, compiled from its Strategy definition once per toggles snapshot.
+ * Implementations must be immutable and thread-safe, and should not allocate or parse while evaluating.
+ * 
+ * @author tfredrich
+ */
+public interface StrategyEvaluator
+{
+	/**
+	 * Answer whether the feature should be active for the given context.
+	 * 
+	 * @param context contextual values supplied by the caller. Possibly null.
+	 * @return true if this strategy activates the feature for the context.
+	 */
+	public boolean evaluate(TogglesContext context);
+}
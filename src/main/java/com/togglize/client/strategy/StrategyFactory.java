@@ -0,0 +1,37 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import java.util.Map;
+
+/**
+ * Compiles the parameters of a named strategy into a StrategyEvaluator. Register custom factories
+ * via TogglesConfiguration.registerStrategy().
+ * 
+ * @author tfredrich
+ */
+public interface StrategyFactory
+{
+	/**
+	 * Create an evaluator for the strategy parameters. Any parsing of parameter values should happen here,
+	 * not during evaluation.
+	 * 
+	 * @param featureName the name of the feature the strategy belongs to.
+	 * @param parameters the strategy parameters. Never null.
+	 * @return a new StrategyEvaluator. Never null.
+	 */
+	public StrategyEvaluator newEvaluator(String featureName, Map<String, String> parameters);
+}
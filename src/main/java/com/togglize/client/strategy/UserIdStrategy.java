@@ -0,0 +1,61 @@
+/*
+    Copyright 2019, Strategic Gains, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package com.togglize.client.strategy;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.User;
+
+/**
+ * Activates a feature for an explicit list of users. The 'userIds' parameter is a comma-separated
+ * list of user IDs, matched against the ID of the context's User.
+ * 
+ * @author tfredrich
+ */
+public class UserIdStrategy
+implements StrategyEvaluator
+{
+	public static final String NAME = "userWithId";
+	public static final String USER_IDS = "userIds";
+
+	public static final StrategyFactory FACTORY = new StrategyFactory()
+	{
+		@Override
+		public StrategyEvaluator newEvaluator(String featureName, Map<String, String> parameters)
+		{
+			return new UserIdStrategy(StrategyCompiler.parseList(parameters.get(USER_IDS)));
+		}
+	};
+
+	private final Set<String> userIds;
+
+	public UserIdStrategy(Set<String> userIds)
+	{
+		super();
+		this.userIds = userIds;
+	}
+
+	@Override
+	public boolean evaluate(TogglesContext context)
+	{
+		if (context == null) return false;
+
+		User user = context.getUser();
+		return (user != null && user.getId() != null && userIds.contains(user.getId()));
+	}
+}
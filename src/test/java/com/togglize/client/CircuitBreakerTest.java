@@ -0,0 +1,55 @@
+package com.togglize.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest
+{
+	@Test
+	public void shouldBackOffExponentiallyWithJitter()
+	{
+		CircuitBreaker breaker = new CircuitBreaker(100l, 1000l);
+		long now = 0l;
+
+		assertTrue(breaker.onFailure(now));
+		assertBetween(50l, 100l, breaker.getRetryAt() - now);
+		assertFalse(breaker.onFailure(now));
+		assertBetween(100l, 200l, breaker.getRetryAt() - now);
+		assertFalse(breaker.onFailure(now));
+		assertBetween(200l, 400l, breaker.getRetryAt() - now);
+
+		for (int i = 0; i < 40; i++)
+		{
+			assertFalse(breaker.onFailure(now));
+		}
+
+		assertBetween(500l, 1000l, breaker.getRetryAt() - now);
+	}
+
+	@Test
+	public void shouldProbeOnceBackoffLapses()
+	{
+		CircuitBreaker breaker = new CircuitBreaker(100l, 1000l);
+		assertTrue(breaker.allowRequest(0l));
+
+		breaker.onFailure(0l);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest(breaker.getRetryAt() - 1));
+		assertTrue(breaker.allowRequest(breaker.getRetryAt()));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		assertTrue(breaker.onSuccess());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertFalse(breaker.onSuccess());
+		assertTrue(breaker.onFailure(0l));
+	}
+
+	private void assertBetween(long min, long max, long actual)
+	{
+		assertTrue(actual + " < " + min, actual >= min);
+		assertTrue(actual + " > " + max, actual <= max);
+	}
+}
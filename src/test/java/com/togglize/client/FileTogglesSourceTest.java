@@ -0,0 +1,111 @@
+package com.togglize.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.event.Events;
+import com.togglize.client.event.LocalEventBus;
+import com.togglize.client.snapshot.BinarySnapshot;
+import com.togglize.client.snapshot.FileSnapshotStore;
+import com.togglize.client.snapshot.TogglesSnapshot;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class FileTogglesSourceTest
+{
+	private static final String TOGGLES = "{\"version\": \"7\", \"features\": {"
+		+ "\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": true},"
+		+ "\"Disabled Feature\": {\"name\": \"Disabled Feature\", \"enabled\": false}"
+		+ "}}";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setEventBus()
+	{
+		Events.setEventBus(new LocalEventBus(Collections.emptyList(), false, 0l));
+	}
+
+	@Test
+	public void shouldReadApiPayload()
+	throws Exception
+	{
+		Path path = folder.newFile("toggles.json").toPath();
+		Files.write(path, TOGGLES.getBytes(StandardCharsets.UTF_8));
+
+		assertToggles(new FileTogglesSource(path, new StrategyCompiler()).fetch(null));
+	}
+
+	@Test
+	public void shouldReadSnapshots()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = new TogglesSnapshot(Json.MAPPER.readValue(TOGGLES, StageToggles.class), 1234l, null, null, new StrategyCompiler());
+		Path json = folder.newFile("toggles.json").toPath();
+		Path binary = folder.newFile("toggles.bin").toPath();
+		Files.write(json, FileSnapshotStore.toJson(snapshot));
+		Files.write(binary, BinarySnapshot.encode(snapshot));
+
+		assertToggles(new FileTogglesSource(json, new StrategyCompiler()).fetch(null));
+		assertToggles(new FileTogglesSource(binary, new StrategyCompiler()).fetch(null));
+	}
+
+	@Test
+	public void shouldNotRebuildUnchangedFile()
+	throws Exception
+	{
+		Path path = folder.newFile("toggles.json").toPath();
+		Files.write(path, TOGGLES.getBytes(StandardCharsets.UTF_8));
+		FileTogglesSource source = new FileTogglesSource(path, new StrategyCompiler());
+		TogglesSnapshot first = source.fetch(null);
+
+		assertTrue(first.hasSameToggles(source.fetch(first)));
+
+		Files.write(path, "{\"features\": {}}".getBytes(StandardCharsets.UTF_8));
+		TogglesSnapshot changed = source.fetch(first);
+
+		assertFalse(first.hasSameToggles(changed));
+		assertEquals(0, changed.size());
+	}
+
+	@Test
+	public void shouldRejectCorruptFile()
+	throws Exception
+	{
+		Path path = folder.newFile("toggles.json").toPath();
+		Files.write(path, "{\"features\": {".getBytes(StandardCharsets.UTF_8));
+
+		try
+		{
+			new FileTogglesSource(path, new StrategyCompiler()).fetch(null);
+			fail("Expected a TogglesException");
+		}
+		catch (TogglesException e)
+		{
+			// The parse failure is kept, to diagnose the file by.
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private void assertToggles(TogglesSnapshot snapshot)
+	{
+		assertEquals("7", snapshot.getVersion());
+		assertEquals(2, snapshot.size());
+		assertTrue(snapshot.isEnabled("Fantastic Feature", null, false));
+		assertFalse(snapshot.isEnabled("Disabled Feature", null, true));
+	}
+}
@@ -0,0 +1,62 @@
+package com.togglize.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RefreshScheduleTest
+{
+	@Test
+	public void shouldSpreadFirstRefreshAcrossInterval()
+	{
+		long min = Long.MAX_VALUE;
+		long max = 0l;
+
+		for (int i = 0; i < 1000; i++)
+		{
+			long delay = new RefreshSchedule(1000l, false).nextDelay();
+			assertBetween(0l, 1000l, delay);
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+
+		assertTrue(min < 250l);
+		assertTrue(max > 750l);
+	}
+
+	@Test
+	public void shouldJitterSubsequentRefreshes()
+	{
+		RefreshSchedule schedule = new RefreshSchedule(1000l, false);
+		schedule.nextDelay();
+
+		for (int i = 0; i < 1000; i++)
+		{
+			assertBetween(750l, 1000l, schedule.nextDelay());
+		}
+
+		schedule.onRefreshed(true);
+		assertEquals(1000l, schedule.getIntervalMillis());
+	}
+
+	@Test
+	public void shouldAdaptToChanges()
+	{
+		RefreshSchedule schedule = new RefreshSchedule(1000l, true);
+		schedule.onRefreshed(true);
+		assertEquals(250l, schedule.getIntervalMillis());
+		schedule.onRefreshed(false);
+		assertEquals(500l, schedule.getIntervalMillis());
+		schedule.onRefreshed(false);
+		assertEquals(1000l, schedule.getIntervalMillis());
+		schedule.onRefreshed(false);
+		assertEquals(1000l, schedule.getIntervalMillis());
+	}
+
+	private void assertBetween(long min, long max, long actual)
+	{
+		assertTrue(actual + " < " + min, actual >= min);
+		assertTrue(actual + " > " + max, actual <= max);
+	}
+}
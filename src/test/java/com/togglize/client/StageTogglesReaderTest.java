@@ -0,0 +1,130 @@
+package com.togglize.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+
+public class StageTogglesReaderTest
+{
+	private static final String TOGGLES = "{"
+		+ "\"stage\": {\"id\": \"s1\", \"name\": \"development\", \"links\": [{\"rel\": \"self\"}]},"
+		+ "\"version\": 42,"
+		+ "\"features\": {"
+		+ "  \"Fantastic Feature\": {\"id\": \"f1\", \"name\": \"Fantastic Feature\", \"description\": \"Skipped\","
+		+ "    \"enabled\": true, \"featureEnabled\": true, \"releaseEnabled\": false,"
+		+ "    \"release\": {\"id\": \"r1\", \"name\": \"Skipped\"}, \"tags\": [\"a\", {\"b\": [1, 2]}]},"
+		+ "  \"Rollout Feature\": {\"name\": \"Rollout Feature\", \"enabled\": true, \"strategies\": ["
+		+ "    {\"id\": \"st1\", \"name\": \"gradualRollout\", \"parameters\": {\"percentage\": 50, \"groupId\": \"g\", \"nested\": {\"x\": 1}}}"
+		+ "  ]},"
+		+ "  \"Missing Feature\": null"
+		+ "},"
+		+ "\"unknown\": {\"deeply\": {\"nested\": [true]}}"
+		+ "}";
+
+	@Test
+	public void shouldReadEvaluatedFields()
+	throws Exception
+	{
+		StageToggles toggles = StageTogglesReader.read(new ByteArrayInputStream(TOGGLES.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("s1", toggles.getStage().getId());
+		assertEquals("development", toggles.getStage().getName());
+		assertEquals("42", toggles.getVersion());
+		assertFalse(toggles.isDelta());
+		assertEquals(3, toggles.getFeatures().size());
+		assertNull(toggles.getFeatureToggle("Missing Feature"));
+
+		FeatureToggle fantastic = toggles.getFeatureToggle("Fantastic Feature");
+		assertEquals("Fantastic Feature", fantastic.getName());
+		assertTrue(fantastic.isEnabled());
+		assertNull(fantastic.getDescription());
+		assertNull(fantastic.getStrategies());
+		assertNull(fantastic.getSlug());
+
+		Iterator<Strategy> strategies = toggles.getFeatureToggle("Rollout Feature").getStrategies().iterator();
+		Strategy rollout = strategies.next();
+		assertFalse(strategies.hasNext());
+		assertEquals("gradualRollout", rollout.getName());
+		assertEquals("50", rollout.getParameters().get("percentage"));
+		assertEquals("g", rollout.getParameters().get("groupId"));
+		assertFalse(rollout.getParameters().containsKey("nested"));
+	}
+
+	@Test
+	public void shouldReadFeatureDetails()
+	throws Exception
+	{
+		StageToggles toggles = StageTogglesReader.read(TOGGLES);
+
+		FeatureToggle fantastic = toggles.getFeatureToggle("Fantastic Feature");
+		assertEquals("f1", fantastic.getId());
+		assertEquals("r1", fantastic.getReleaseId());
+		assertTrue(fantastic.isFeatureEnabled());
+		assertFalse(fantastic.isReleaseEnabled());
+
+		FeatureToggle rollout = toggles.getFeatureToggle("Rollout Feature");
+		assertNull(rollout.getId());
+		assertNull(rollout.getReleaseId());
+		assertFalse(rollout.isFeatureEnabled());
+		assertFalse(rollout.isReleaseEnabled());
+	}
+
+	@Test
+	public void shouldNotCloseStream()
+	throws Exception
+	{
+		AtomicBoolean isClosed = new AtomicBoolean();
+		InputStream in = new ByteArrayInputStream(TOGGLES.getBytes(StandardCharsets.UTF_8))
+		{
+			@Override
+			public void close()
+			{
+				isClosed.set(true);
+			}
+		};
+
+		StageTogglesReader.read(in);
+		assertFalse(isClosed.get());
+	}
+
+	@Test
+	public void shouldReadDelta()
+	throws Exception
+	{
+		StageToggles delta = StageTogglesReader.read("{\"version\": \"7\", \"delta\": true, \"features\": {}, \"removed\": [\"a\", \"b\"]}");
+
+		assertTrue(delta.isDelta());
+		assertEquals("7", delta.getVersion());
+		assertEquals(Arrays.asList("a", "b"), delta.getRemoved());
+		assertTrue(delta.getFeatures().isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectTruncatedPayload()
+	throws Exception
+	{
+		StageTogglesReader.read(TOGGLES.substring(0, TOGGLES.length() / 2));
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectNonObjectPayload()
+	throws Exception
+	{
+		StageTogglesReader.read("[]");
+	}
+}
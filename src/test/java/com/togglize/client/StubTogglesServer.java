@@ -0,0 +1,355 @@
+package com.togglize.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the token, toggles, toggles stream and metrics endpoints. Serves whatever toggles JSON it
+ * is given, honoring If-None-Match against the configured ETag and, optionally, Accept-Encoding: gzip. Records the
+ * requests it receives.
+ */
+public class StubTogglesServer
+{
+	public static final String STAGE = "development";
+
+	private static final String TOKEN_TEMPLATE = "{\"token_type\": \"bearer\", \"access_token\": \"stub-%d\", \"expires_in\": %d}";
+
+	private HttpServer server;
+	private volatile String toggles = "{\"features\": {}}";
+	private volatile String etag;
+	private volatile String deltaSince;
+	private volatile String delta;
+	private List<Headers> requests = new CopyOnWriteArrayList<>();
+	private List<String> queries = new CopyOnWriteArrayList<>();
+	private BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+	private volatile int streamConnections;
+	private volatile boolean isRunning;
+	private volatile boolean shouldGzip;
+	private List<String> uploads = new CopyOnWriteArrayList<>();
+	private List<Headers> uploadHeaders = new CopyOnWriteArrayList<>();
+	private ExecutorService executor;
+	private AtomicInteger tokenRequests = new AtomicInteger();
+	private volatile int tokenExpiresInSeconds = 3600;
+	private volatile long tokenDelayMillis;
+	private volatile long togglesDelayMillis;
+	private volatile int togglesStatus = 200;
+
+	public StubTogglesServer start()
+	throws IOException
+	{
+		// Stream requests hold their thread for as long as they're connected.
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "stub-toggles-server");
+			t.setDaemon(true);
+			return t;
+		});
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/token", this::handleToken);
+		server.createContext("/stages/" + STAGE + "/features", this::handleToggles);
+		server.createContext("/stages/" + STAGE + "/features/stream", this::handleStream);
+		server.createContext("/stages/" + STAGE + "/metrics", this::handleMetrics);
+		isRunning = true;
+		server.start();
+		return this;
+	}
+
+	public void stop()
+	{
+		isRunning = false;
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Send toggles JSON as a 'toggles' event to the connected (or next) stream client.
+	 */
+	public StubTogglesServer push(String json)
+	{
+		pushes.add(json);
+		return this;
+	}
+
+	public int getStreamConnections()
+	{
+		return streamConnections;
+	}
+
+	public TogglesConfiguration newConfiguration()
+	{
+		String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+		return new TogglesConfiguration("stub-client", "stub-secret")
+			.setBaseTokenUrl(baseUrl)
+			.setBaseTogglesUrl(baseUrl)
+			.setStage(STAGE);
+	}
+
+	public StubTogglesServer setToggles(String json, String etag)
+	{
+		this.toggles = json;
+		this.etag = etag;
+		return this;
+	}
+
+	/**
+	 * Gzip toggles responses to requests that accept it.
+	 */
+	public StubTogglesServer setGzip(boolean value)
+	{
+		this.shouldGzip = value;
+		return this;
+	}
+
+	/**
+	 * @return the (decompressed) body of each metrics upload received, in order.
+	 */
+	public List<String> getUploads()
+	{
+		return uploads;
+	}
+
+	/**
+	 * @return the headers of each metrics upload received, in order.
+	 */
+	public List<Headers> getUploadHeaders()
+	{
+		return uploadHeaders;
+	}
+
+	/**
+	 * Serve the given delta, instead of the full toggles, to requests for changes since the given version.
+	 */
+	public StubTogglesServer setDelta(String since, String json)
+	{
+		this.deltaSince = since;
+		this.delta = json;
+		return this;
+	}
+
+	/**
+	 * @return the query string of each toggles request received, in order. Null where a request had none.
+	 */
+	public List<String> getQueries()
+	{
+		return queries;
+	}
+
+	/**
+	 * @return the headers of each toggles request received, in order.
+	 */
+	public List<Headers> getRequests()
+	{
+		return requests;
+	}
+
+	public StubTogglesServer setTokenExpiresInSeconds(int value)
+	{
+		this.tokenExpiresInSeconds = value;
+		return this;
+	}
+
+	/**
+	 * Holds each token response for the given time, to widen the window for concurrent token requests.
+	 */
+	public StubTogglesServer setTokenDelayMillis(long value)
+	{
+		this.tokenDelayMillis = value;
+		return this;
+	}
+
+	/**
+	 * Answer toggles requests with the given status and an empty body, e.g. 401 for revoked credentials. 200 serves the toggles.
+	 */
+	public StubTogglesServer setTogglesStatus(int value)
+	{
+		this.togglesStatus = value;
+		return this;
+	}
+
+	/**
+	 * Holds each toggles response for the given time, e.g. to tell whether a caller waited on a fetch.
+	 */
+	public StubTogglesServer setTogglesDelayMillis(long value)
+	{
+		this.togglesDelayMillis = value;
+		return this;
+	}
+
+	/**
+	 * @return the number of token requests received. Each issued token is named 'stub-n' after it.
+	 */
+	public int getTokenRequests()
+	{
+		return tokenRequests.get();
+	}
+
+	private void handleToken(HttpExchange exchange)
+	throws IOException
+	{
+		int n = tokenRequests.incrementAndGet();
+		pause(tokenDelayMillis);
+		respond(exchange, 200, String.format(TOKEN_TEMPLATE, n, tokenExpiresInSeconds));
+	}
+
+	private void handleToggles(HttpExchange exchange)
+	throws IOException
+	{
+		requests.add(exchange.getRequestHeaders());
+		String query = exchange.getRequestURI().getRawQuery();
+		queries.add(query);
+		pause(togglesDelayMillis);
+
+		if (togglesStatus != 200)
+		{
+			respond(exchange, togglesStatus, "{}");
+			return;
+		}
+		String currentEtag = etag;
+
+		if (currentEtag != null)
+		{
+			exchange.getResponseHeaders().set("ETag", currentEtag);
+
+			if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+			{
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+		}
+
+		if (delta != null && ("since=" + deltaSince).equals(query))
+		{
+			respond(exchange, 200, delta);
+			return;
+		}
+
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+		if (shouldGzip && acceptEncoding != null && acceptEncoding.contains("gzip"))
+		{
+			respondGzipped(exchange, toggles);
+			return;
+		}
+
+		respond(exchange, 200, toggles);
+	}
+
+	private void handleMetrics(HttpExchange exchange)
+	throws IOException
+	{
+		uploadHeaders.add(exchange.getRequestHeaders());
+		InputStream in = exchange.getRequestBody();
+
+		if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+		{
+			in = new GZIPInputStream(in);
+		}
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+
+		for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+		{
+			body.write(buffer, 0, n);
+		}
+
+		uploads.add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+		respond(exchange, 200, "{}");
+	}
+
+	private static void respondGzipped(HttpExchange exchange, String body)
+	throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes))
+		{
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+
+		exchange.getRequestBody().close();
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		exchange.sendResponseHeaders(200, bytes.size());
+
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			bytes.writeTo(out);
+		}
+	}
+
+	private void handleStream(HttpExchange exchange)
+	throws IOException
+	{
+		streamConnections++;
+		exchange.getRequestBody().close();
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+		exchange.sendResponseHeaders(200, 0);
+
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+
+			while (isRunning)
+			{
+				String json = pushes.poll(50, TimeUnit.MILLISECONDS);
+
+				if (json != null)
+				{
+					out.write(("event: toggles\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void pause(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body)
+	throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getRequestBody().close();
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+}
@@ -1,14 +1,503 @@
 package com.togglize.client;
 
-import static org.junit.Assert.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.togglize.client.event.AbstractEventObserver;
+import com.togglize.client.event.DefaultEventHandler;
+import com.togglize.client.event.ErrorEvent;
+import com.togglize.client.event.ReadyEvent;
+import com.togglize.client.snapshot.Evaluations;
+import com.togglize.client.snapshot.InMemorySnapshotStore;
+import com.togglize.client.snapshot.SnapshotStore;
 
 public class TogglesClientTest
 {
+	private static final String TOGGLES = "{\"features\": {"
+		+ "\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": true},"
+		+ "\"Disabled Feature\": {\"name\": \"Disabled Feature\", \"enabled\": false}"
+		+ "}}";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubTogglesServer server;
+	private TogglesClient client;
+
+	@Before
+	public void startServer()
+	throws Exception
+	{
+		server = new StubTogglesServer().start();
+	}
+
+	@After
+	public void stopServer()
+	{
+		if (client != null) client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void shouldEvaluateFetchedToggles()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration().newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertFalse(client.isEnabled("Disabled Feature", true));
+		assertTrue(client.isEnabled("Missing Feature", true));
+		assertTrue(client.toggle("Fantastic Feature").isEnabled());
+		assertTrue(client.ready().isDone());
+	}
+
 	@Test
-	public void test()
+	public void shouldServeRefreshedToggles()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setCacheTtlMillis(100l)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertFalse(client.isEnabled("Disabled Feature", true));
+		assertFalse(client.isEnabled("Missing Feature"));
+
+		server.setToggles("{\"features\": {"
+			+ "\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": false},"
+			+ "\"Missing Feature\": {\"name\": \"Missing Feature\", \"enabled\": true}"
+			+ "}}", null);
+		Thread.sleep(150l);
+
+		// The expired toggles are replaced as a whole: removed features fall back to the default.
+		assertFalse(client.isEnabled("Fantastic Feature", true));
+		assertTrue(client.isEnabled("Missing Feature"));
+		assertTrue(client.isEnabled("Disabled Feature", true));
+		assertEquals(2, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldRebindHandlesToRefreshedToggles()
+	throws Exception
+	{
+		String feature = "\"%1$s\": {\"name\": \"%1$s\", \"enabled\": %2$s}";
+		server.setToggles("{\"features\": {" + String.format(feature, "B", false) + "," + String.format(feature, "C", true) + "}}", null);
+		client = server.newConfiguration()
+			.setCacheTtlMillis(100l)
+			.newTogglesClient();
+		ToggleHandle a = client.toggle("A");
+		ToggleHandle c = client.toggle("C");
+
+		assertFalse(a.isEnabled());
+		assertTrue(c.isEnabled());
+
+		// 'A' is added ahead of 'C', which moves to another slot.
+		server.setToggles("{\"features\": {" + String.format(feature, "A", true) + "," + String.format(feature, "B", false) + ","
+			+ String.format(feature, "C", false) + "}}", null);
+		Thread.sleep(150l);
+
+		assertTrue(a.isEnabled());
+		assertFalse(c.isEnabled(true));
+
+		// 'C' is removed.
+		server.setToggles("{\"features\": {" + String.format(feature, "A", true) + "}}", null);
+		Thread.sleep(150l);
+
+		assertTrue(c.isEnabled(true));
+		assertFalse(c.isEnabled(false));
+		assertTrue(a.isEnabled());
+		assertEquals(3, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldStartAsynchronously()
+	throws Exception
+	{
+		CountDownLatch isReady = new CountDownLatch(1);
+		server.setToggles(TOGGLES, null);
+		server.setTokenDelayMillis(500l);
+		client = server.newConfiguration()
+			.setShouldStartAsync(true)
+			.setEventHandler(new DefaultEventHandler(new AbstractEventObserver()
+			{
+				@Override
+				public void onReady(ReadyEvent ready)
+				{
+					isReady.countDown();
+				}
+			}))
+			.newTogglesClient();
+
+		assertFalse(client.ready().isDone());
+		assertSame(client, client.ready().get(5, TimeUnit.SECONDS));
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertTrue(isReady.await(5, TimeUnit.SECONDS));
+		assertEquals(1, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldEvaluateAsynchronously()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setShouldFetchOnStartup(false)
+			.newTogglesClient();
+
+		CompletableFuture<Boolean> enabled = client.isEnabledAsync("Fantastic Feature", null, false).toCompletableFuture();
+		CompletableFuture<Evaluations> all = client.evaluateAllAsync(null).toCompletableFuture();
+
+		assertTrue(enabled.get(5, TimeUnit.SECONDS));
+		assertTrue(all.get(5, TimeUnit.SECONDS).isEnabled("Fantastic Feature"));
+		assertEquals(1, server.getRequests().size());
+
+		// With toggles in hand, the result is available immediately.
+		assertTrue(client.isEnabledAsync("Disabled Feature", null, true).toCompletableFuture().isDone());
+		assertFalse(client.isEnabledAsync("Disabled Feature", null, true).toCompletableFuture().get());
+	}
+
+	@Test
+	public void shouldEvaluateSynchronouslyFromAsyncContinuation()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setShouldFetchOnStartup(false)
+			.setCacheTtlMillis(1l)
+			.newTogglesClient();
+
+		// The continuation blocks on a refresh of the expired toggles, which mustn't wait on its own thread.
+		CompletableFuture<String> thread = client.isEnabledAsync("Fantastic Feature", null, false)
+			.thenApply(isEnabled -> {
+				assertTrue(client.isEnabled("Fantastic Feature"));
+				return Thread.currentThread().getName();
+			})
+			.toCompletableFuture();
+
+		assertFalse(thread.get(5, TimeUnit.SECONDS).startsWith("toggles-http-worker"));
+	}
+
+	@Test
+	public void shouldStartFromSnapshotFile()
+	throws Exception
+	{
+		String file = folder.getRoot().toPath().resolve("toggles.json").toString();
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setSnapshotFile(file)
+			.newTogglesClient();
+		client.shutdown();
+
+		// The remote API is unreachable, but the persisted toggles are served right away.
+		server.stop();
+		client = server.newConfiguration()
+			.setSnapshotFile(file)
+			.setMaxRetries(0)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertFalse(client.isEnabled("Disabled Feature", true));
+	}
+
+	@Test
+	public void shouldStartFromSnapshotStore()
+	throws Exception
+	{
+		SnapshotStore store = new InMemorySnapshotStore();
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setSnapshotStore(store)
+			.newTogglesClient();
+		client.shutdown();
+
+		server.stop();
+		client = server.newConfiguration()
+			.setSnapshotStore(store)
+			.setMaxRetries(0)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+	}
+
+	@Test
+	public void shouldShareTogglesBetweenClients()
+	throws Exception
+	{
+		String file = folder.getRoot().toPath().resolve("toggles.shared").toString();
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setRefreshMode(RefreshMode.SHARED)
+			.setSharedSnapshotFile(file)
+			.newTogglesClient();
+		TogglesClient other = server.newConfiguration()
+			.setRefreshMode(RefreshMode.SHARED)
+			.setSharedSnapshotFile(file)
+			.newTogglesClient();
+
+		try
+		{
+			assertTrue(other.isEnabled("Fantastic Feature"));
+			assertFalse(other.isEnabled("Disabled Feature", true));
+			assertEquals(1, server.getRequests().size());
+		}
+		finally
+		{
+			other.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldRevalidateWithEtag()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, "\"v1\"");
+		client = server.newConfiguration()
+			.setCacheTtlMillis(0l)
+			.newTogglesClient();
+
+		assertNull(server.getRequests().get(0).getFirst("If-None-Match"));
+		Thread.sleep(5l);
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertEquals(2, server.getRequests().size());
+		assertEquals("\"v1\"", server.getRequests().get(1).getFirst("If-None-Match"));
+
+		server.setToggles("{\"features\": {}}", "\"v2\"");
+		Thread.sleep(5l);
+		assertFalse(client.isEnabled("Fantastic Feature"));
+		assertEquals(3, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldApplyDeltas()
+	throws Exception
+	{
+		server.setToggles("{\"version\": \"1\", \"features\": {"
+			+ "\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": true},"
+			+ "\"Beta Feature\": {\"name\": \"Beta Feature\", \"enabled\": true}"
+			+ "}}", null);
+		server.setDelta("1", "{\"version\": \"2\", \"delta\": true, \"features\": {"
+			+ "\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": false},"
+			+ "\"New Feature\": {\"name\": \"New Feature\", \"enabled\": true}"
+			+ "}, \"removed\": [\"Beta Feature\"]}");
+		client = server.newConfiguration()
+			.setCacheTtlMillis(0l)
+			.setShouldUseDeltaSync(true)
+			.newTogglesClient();
+
+		assertNull(server.getQueries().get(0));
+		Thread.sleep(5l);
+		Evaluations evaluations = client.evaluateAll(null);
+		assertEquals("since=1", server.getQueries().get(1));
+		assertEquals(2, evaluations.size());
+		assertFalse(evaluations.isEnabled("Fantastic Feature", true));
+		assertTrue(evaluations.isEnabled("New Feature", false));
+		assertTrue(evaluations.isEnabled("Beta Feature", true));
+	}
+
+	@Test
+	public void shouldReportRejectedCredentials()
+	throws Exception
+	{
+		CountDownLatch isReported = new CountDownLatch(1);
+		server.setTogglesStatus(401);
+		client = server.newConfiguration()
+			.setShouldFetchOnStartup(false)
+			.setMaxRetries(1)
+			.setEventHandler(new DefaultEventHandler(new AbstractEventObserver()
+			{
+				@Override
+				public void onError(ErrorEvent error)
+				{
+					isReported.countDown();
+				}
+			}))
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature", true));
+		assertTrue(isReported.await(5, TimeUnit.SECONDS));
+
+		// The first attempt, plus one with a new access token.
+		assertEquals(2, server.getRequests().size());
+		assertEquals(2, server.getTokenRequests());
+	}
+
+	@Test
+	public void shouldRefreshInBackground()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setRefreshMode(RefreshMode.BACKGROUND)
+			.setCacheTtlMillis(300l)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		// The refetch happens ahead of the TTL without any caller asking for it.
+		while (server.getRequests().size() < 2 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		assertTrue(server.getRequests().size() >= 2);
+
+		// With every refetch held up, callers are still answered immediately from the expired toggles.
+		server.setTogglesDelayMillis(2000l);
+		Thread.sleep(600l);
+		long startedAt = System.currentTimeMillis();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		assertTrue(System.currentTimeMillis() - startedAt < 500l);
+	}
+
+	@Test
+	public void shouldReloadTogglesFile()
+	throws Exception
+	{
+		Path file = folder.getRoot().toPath().resolve("toggles.json");
+		Files.write(file, TOGGLES.getBytes(StandardCharsets.UTF_8));
+		client = server.newConfiguration()
+			.setTogglesFile(file.toString())
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		replace(file, "{\"features\": {\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": false}}}");
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		while (client.isEnabled("Fantastic Feature") && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		assertFalse(client.isEnabled("Fantastic Feature"));
+		assertEquals(0, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldReloadTogglesFileAfterBadFile()
+	throws Exception
+	{
+		Path file = folder.getRoot().toPath().resolve("toggles.json");
+		Files.write(file, TOGGLES.getBytes(StandardCharsets.UTF_8));
+		client = server.newConfiguration()
+			.setTogglesFile(file.toString())
+			.setMinRefreshBackoffMillis(60000l)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		replace(file, "{\"features\": {\"Fantastic Feature\": ");
+
+		// Let the bad file be read, backing off refreshes for a minute.
+		Thread.sleep(500l);
+		assertTrue(client.isEnabled("Fantastic Feature"));
+
+		replace(file, "{\"features\": {\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": false}}}");
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		while (client.isEnabled("Fantastic Feature") && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		assertFalse(client.isEnabled("Fantastic Feature"));
+	}
+
+	@Test
+	public void shouldApplyStreamedToggles()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setRefreshMode(RefreshMode.STREAMING)
+			.newTogglesClient();
+
+		assertTrue(client.isEnabled("Fantastic Feature"));
+		server.push("{\"features\": {\"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": false}}}");
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		while (client.isEnabled("Fantastic Feature") && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		assertFalse(client.isEnabled("Fantastic Feature"));
+		assertEquals(1, server.getStreamConnections());
+		assertEquals(1, server.getRequests().size());
+	}
+
+	@Test
+	public void shouldShutDownStreamPromptly()
+	throws Exception
+	{
+		server.setToggles(TOGGLES, null);
+		client = server.newConfiguration()
+			.setRefreshMode(RefreshMode.STREAMING)
+			.newTogglesClient();
+		server.push(TOGGLES);
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		while (server.getStreamConnections() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		// Give the push time to arrive, so the stream is mid-read when shut down.
+		Thread.sleep(200l);
+		long startedAt = System.currentTimeMillis();
+		client.shutdown();
+		client = null;
+
+		assertTrue(System.currentTimeMillis() - startedAt < 1000l);
+	}
+
+	@Test
+	public void shouldFetchGzippedToggles()
+	throws Exception
+	{
+		StringBuilder json = new StringBuilder("{\"features\": {");
+
+		for (int i = 0; i < 100; i++)
+		{
+			if (i > 0) json.append(',');
+			json.append(String.format("\"feature-%03d\": {\"name\": \"feature-%03d\", \"enabled\": true, \"strategies\": ["
+				+ "{\"name\": \"gradualRollout\", \"parameters\": {\"percentage\": \"50\", \"groupId\": \"feature-%03d\"}}]}", i, i, i));
+		}
+
+		server.setToggles(json.append("}}").toString(), null).setGzip(true);
+		client = server.newConfiguration().newTogglesClient();
+
+		assertEquals(100, client.evaluateAll(null).size());
+		assertEquals("gzip", server.getRequests().get(0).getFirst("Accept-Encoding"));
+		assertTrue(client.getTransferStats().getDecodedBytesReceived() >= json.length());
+		assertTrue(client.getTransferStats().getWireBytesReceived() < json.length() / 4);
+	}
+
+	private void replace(Path file, String json)
+	throws IOException
 	{
-//		fail("Not yet implemented");
+		Path temp = folder.newFile().toPath();
+		Files.write(temp, json.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 	}
 }
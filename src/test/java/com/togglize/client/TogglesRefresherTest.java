@@ -0,0 +1,300 @@
+package com.togglize.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.event.Events;
+import com.togglize.client.event.LocalEventBus;
+import com.togglize.client.metrics.TransferStats;
+import com.togglize.client.snapshot.SnapshotStore;
+import com.togglize.client.snapshot.TogglesSnapshot;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class TogglesRefresherTest
+{
+	private static final int THREADS = 16;
+
+	private TogglesConfiguration config = new TogglesConfiguration("client", "secret");
+
+	@Before
+	public void setEventBus()
+	{
+		Events.setEventBus(new LocalEventBus(Collections.emptyList(), false, 0l));
+	}
+
+	@Test
+	public void shouldCoalesceConcurrentRefreshes()
+	throws Exception
+	{
+		CountingFetcher fetcher = new CountingFetcher(config);
+		TogglesRefresher refresher = new TogglesRefresher(fetcher, config);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CyclicBarrier start = new CyclicBarrier(THREADS);
+		CountDownLatch arrived = new CountDownLatch(THREADS);
+		List<Thread> workers = new CopyOnWriteArrayList<>();
+		List<Future<TogglesSnapshot>> results = new ArrayList<>();
+
+		for (int i = 0; i < THREADS; i++)
+		{
+			results.add(pool.submit(() -> {
+				start.await();
+				workers.add(Thread.currentThread());
+				arrived.countDown();
+				return refresher.refresh();
+			}));
+		}
+
+		fetcher.started.await(5, TimeUnit.SECONDS);
+		arrived.await(5, TimeUnit.SECONDS);
+
+		// Only release the fetch once every worker is parked: either fetching or waiting on the fetch in flight.
+		while (!isParked(workers))
+		{
+			Thread.sleep(1l);
+		}
+
+		fetcher.release.countDown();
+
+		TogglesSnapshot first = results.get(0).get(5, TimeUnit.SECONDS);
+		assertNotNull(first);
+
+		for (Future<TogglesSnapshot> result : results)
+		{
+			assertSame(first, result.get(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, fetcher.fetches.get());
+		pool.shutdown();
+	}
+
+	@Test
+	public void shouldServeCurrentSnapshotWhileRefreshInFlight()
+	throws Exception
+	{
+		CountingFetcher fetcher = new CountingFetcher(config);
+		TogglesRefresher refresher = new TogglesRefresher(fetcher, config);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<TogglesSnapshot> pending = pool.submit(refresher::refresh);
+		fetcher.started.await(5, TimeUnit.SECONDS);
+
+		// Nothing fetched yet, so the idle check answers the (empty) current snapshot instead of waiting.
+		assertNull(refresher.refreshIfIdle());
+		fetcher.release.countDown();
+		assertSame(pending.get(5, TimeUnit.SECONDS), refresher.getSnapshot());
+		assertEquals(1, fetcher.fetches.get());
+		pool.shutdown();
+	}
+
+	@Test
+	public void shouldSwapSnapshotsWhole()
+	throws Exception
+	{
+		TogglesRefresher refresher = new TogglesRefresher(new CountingFetcher(config), config);
+		StageToggles on = StageTogglesReader.read("{\"features\": {\"A\": {\"name\": \"A\", \"enabled\": true}, \"B\": {\"name\": \"B\", \"enabled\": true}}}");
+		StageToggles off = StageTogglesReader.read("{\"features\": {\"A\": {\"name\": \"A\", \"enabled\": false}, \"B\": {\"name\": \"B\", \"enabled\": false}}}");
+		refresher.onPushed(on);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		AtomicInteger torn = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		List<Future<?>> readers = new ArrayList<>();
+
+		for (int i = 0; i < 4; i++)
+		{
+			readers.add(pool.submit(() -> {
+				while (done.getCount() > 0)
+				{
+					// One read of the reference: both features always come from the same snapshot.
+					TogglesSnapshot current = refresher.getSnapshot();
+
+					if (current.isEnabled("A", null, false) != current.isEnabled("B", null, false)) torn.incrementAndGet();
+				}
+			}));
+		}
+
+		for (int i = 0; i < 1000; i++)
+		{
+			refresher.onPushed(i % 2 == 0 ? off : on);
+		}
+
+		done.countDown();
+
+		for (Future<?> reader : readers)
+		{
+			reader.get(5, TimeUnit.SECONDS);
+		}
+
+		assertEquals(0, torn.get());
+		assertTrue(refresher.getSnapshot().isEnabled("A", null, false));
+		pool.shutdown();
+	}
+
+	@Test
+	public void shouldNotOverwritePushedToggles()
+	throws Exception
+	{
+		CountingFetcher fetcher = new CountingFetcher(config);
+		TogglesRefresher refresher = new TogglesRefresher(fetcher, config);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<TogglesSnapshot> pending = pool.submit(refresher::refresh);
+		fetcher.started.await(5, TimeUnit.SECONDS);
+
+		// Pushed while the fetch is in flight, so the fetched toggles are stale by the time they arrive.
+		refresher.onPushed(StageTogglesReader.read("{\"features\": {\"Pushed Feature\": {\"name\": \"Pushed Feature\", \"enabled\": true}}}"));
+		fetcher.release.countDown();
+		pending.get(5, TimeUnit.SECONDS);
+
+		assertTrue(refresher.getSnapshot().isEnabled("Pushed Feature", null, false));
+		pool.shutdown();
+	}
+
+	@Test
+	public void shouldFetchInsteadOfApplyingDeltaWithoutToggles()
+	throws Exception
+	{
+		CountingFetcher fetcher = new CountingFetcher(config);
+		TogglesRefresher refresher = new TogglesRefresher(fetcher, config);
+		fetcher.release.countDown();
+
+		refresher.onPushed(StageTogglesReader.read("{\"delta\": true, \"features\": {\"Pushed Feature\": {\"name\": \"Pushed Feature\", \"enabled\": true}}}"));
+
+		assertEquals(1, fetcher.fetches.get());
+		assertFalse(refresher.getSnapshot().isEnabled("Pushed Feature", null, false));
+	}
+
+	@Test
+	public void shouldNotOverwriteFetchedTogglesWithStoredOnes()
+	throws Exception
+	{
+		BlockingStore store = new BlockingStore();
+		config.setSnapshotStore(store);
+		CountingFetcher fetcher = new CountingFetcher(config);
+		TogglesRefresher refresher = new TogglesRefresher(fetcher, config);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Boolean> loading = pool.submit(refresher::loadSnapshot);
+		store.loading.await(5, TimeUnit.SECONDS);
+
+		// Fetched while the store is being read.
+		fetcher.release.countDown();
+		TogglesSnapshot fetched = refresher.refresh();
+		store.release.countDown();
+
+		assertTrue(loading.get(5, TimeUnit.SECONDS));
+		assertSame(fetched, refresher.getSnapshot());
+		refresher.shutdown();
+		pool.shutdown();
+	}
+
+	private static boolean isParked(List<Thread> threads)
+	{
+		for (Thread thread : threads)
+		{
+			if (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Holds every load until released, answering a snapshot older than anything fetched.
+	 */
+	private static class BlockingStore
+	implements SnapshotStore
+	{
+		private CountDownLatch loading = new CountDownLatch(1);
+		private CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public TogglesSnapshot load(StrategyCompiler compiler)
+		throws IOException
+		{
+			loading.countDown();
+
+			try
+			{
+				release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException(e);
+			}
+
+			return new TogglesSnapshot(new StageToggles(), 0l, compiler);
+		}
+
+		@Override
+		public void save(TogglesSnapshot snapshot)
+		{
+		}
+	}
+
+	private static class CountingFetcher
+	extends TogglesFetcher
+	{
+		private AtomicInteger fetches = new AtomicInteger();
+		private CountDownLatch started = new CountDownLatch(1);
+		private CountDownLatch release = new CountDownLatch(1);
+
+		public CountingFetcher(TogglesConfiguration config)
+		{
+			super(null, null, config, new TransferStats());
+		}
+
+		@Override
+		public TogglesSnapshot fetch(TogglesSnapshot current)
+		throws TogglesException
+		{
+			fetches.incrementAndGet();
+			started.countDown();
+
+			try
+			{
+				release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				throw new TogglesException(e);
+			}
+
+			return new TogglesSnapshot(new StageToggles(), System.currentTimeMillis(), new StrategyCompiler());
+		}
+
+		@Override
+		public CompletableFuture<TogglesSnapshot> fetchAsync(TogglesSnapshot current)
+		{
+			CompletableFuture<TogglesSnapshot> result = new CompletableFuture<>();
+
+			try
+			{
+				result.complete(fetch(current));
+			}
+			catch (TogglesException e)
+			{
+				result.completeExceptionally(e);
+			}
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.togglize.client.authn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.togglize.client.StubTogglesServer;
+import com.togglize.client.TogglesConfiguration;
+import com.togglize.client.event.Events;
+import com.togglize.client.event.LocalEventBus;
+import com.togglize.client.http.AsyncHttpTransport;
+import com.togglize.client.http.HttpTransport;
+
+public class TokenManagerImplTest
+{
+	private StubTogglesServer server;
+	private HttpTransport transport;
+
+	@Before
+	public void startServer()
+	throws Exception
+	{
+		server = new StubTogglesServer().start();
+		Events.setEventBus(new LocalEventBus(Collections.emptyList(), false, 0l));
+	}
+
+	@After
+	public void stopServer()
+	{
+		if (transport != null) transport.close();
+		server.stop();
+	}
+
+	@Test
+	public void shouldCoalesceConcurrentTokenRequests()
+	throws Exception
+	{
+		server.setTokenDelayMillis(200l);
+		TogglesConfiguration config = server.newConfiguration();
+		transport = new AsyncHttpTransport(config);
+		TokenManagerImpl tokens = new TokenManagerImpl(config, transport);
+		List<CompletableFuture<String>> results = new ArrayList<>();
+
+		for (int i = 0; i < 8; i++)
+		{
+			results.add(tokens.newAccessTokenAsync());
+		}
+
+		for (CompletableFuture<String> result : results)
+		{
+			assertEquals("Bearer stub-1", result.get(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, server.getTokenRequests());
+		assertEquals("Bearer stub-1", tokens.getAccessToken());
+	}
+
+	@Test
+	public void shouldRefreshAheadOfExpiry()
+	throws Exception
+	{
+		server.setTokenExpiresInSeconds(1);
+		TogglesConfiguration config = server.newConfiguration()
+			.setTokenRefreshSkewMillis(700l);
+		transport = new AsyncHttpTransport(config);
+		TokenManagerImpl tokens = new TokenManagerImpl(config, transport);
+
+		String first = tokens.getAccessToken();
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		// The replacement arrives without any caller asking for it.
+		while (first.equals(tokens.getAccessToken()) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(20l);
+		}
+
+		assertNotEquals(first, tokens.getAccessToken());
+		assertTrue(server.getTokenRequests() >= 2);
+	}
+}
@@ -0,0 +1,171 @@
+package com.togglize.client.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryPolicyTest
+{
+	@Test
+	public void shouldKeepDelaysWithinBounds()
+	{
+		RetryPolicy policy = new RetryPolicy(5, 10l, 100l, 1000l);
+		long delay = 10l;
+
+		for (int i = 0; i < 1000; i++)
+		{
+			long next = policy.nextDelay(delay);
+			assertTrue(next >= 10l);
+			assertTrue(next <= Math.min(100l, delay * 3));
+			delay = next;
+		}
+	}
+
+	@Test
+	public void shouldRetryTransientFailures()
+	throws Exception
+	{
+		ScriptedTransport transport = new ScriptedTransport()
+			.fail(new ConnectException())
+			.respond(503)
+			.respond(200);
+
+		TransportResponse response = new RetryPolicy(5, 10l, 100l, 1000l).execute(transport, transport::next).get(5, TimeUnit.SECONDS);
+
+		assertEquals(200, response.getStatus());
+		assertEquals(3, transport.attempts);
+		assertEquals(2, transport.delays.size());
+	}
+
+	@Test
+	public void shouldNotRetryClientErrors()
+	throws Exception
+	{
+		ScriptedTransport transport = new ScriptedTransport()
+			.respond(404)
+			.respond(200);
+
+		assertEquals(404, new RetryPolicy(5, 10l, 100l, 1000l).execute(transport, transport::next).get(5, TimeUnit.SECONDS).getStatus());
+		assertEquals(1, transport.attempts);
+	}
+
+	@Test
+	public void shouldStopAtMaxRetries()
+	throws Exception
+	{
+		ScriptedTransport transport = new ScriptedTransport()
+			.respond(500)
+			.respond(500)
+			.respond(500);
+
+		assertEquals(500, new RetryPolicy(1, 10l, 100l, 1000l).execute(transport, transport::next).get(5, TimeUnit.SECONDS).getStatus());
+		assertEquals(2, transport.attempts);
+	}
+
+	@Test
+	public void shouldStopAtDeadline()
+	throws Exception
+	{
+		ConnectException failure = new ConnectException();
+		ScriptedTransport transport = new ScriptedTransport()
+			.fail(failure)
+			.respond(200);
+
+		try
+		{
+			new RetryPolicy(5, 10l, 100l, 0l).execute(transport, transport::next).get(5, TimeUnit.SECONDS);
+			fail("Expected the connection failure");
+		}
+		catch (ExecutionException e)
+		{
+			assertSame(failure, e.getCause());
+		}
+
+		assertEquals(1, transport.attempts);
+	}
+
+	@Test
+	public void shouldHonorRetryAfter()
+	throws Exception
+	{
+		ScriptedTransport transport = new ScriptedTransport()
+			.respond(new TransportResponse(429, Collections.singletonMap("retry-after", "2"), new byte[0]))
+			.respond(200);
+
+		new RetryPolicy(5, 10l, 100l, 60000l).execute(transport, transport::next).get(5, TimeUnit.SECONDS);
+
+		assertEquals(Long.valueOf(2000l), transport.delays.get(0));
+	}
+
+	/**
+	 * Answers each attempt from a script and completes delays immediately, recording them.
+	 */
+	private static class ScriptedTransport
+	implements HttpTransport
+	{
+		private LinkedList<CompletableFuture<TransportResponse>> script = new LinkedList<>();
+		private List<Long> delays = new ArrayList<>();
+		private int attempts;
+
+		public ScriptedTransport respond(int status)
+		{
+			return respond(new TransportResponse(status, Collections.emptyMap(), new byte[0]));
+		}
+
+		public ScriptedTransport respond(TransportResponse response)
+		{
+			script.add(CompletableFuture.completedFuture(response));
+			return this;
+		}
+
+		public ScriptedTransport fail(Exception e)
+		{
+			CompletableFuture<TransportResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			script.add(failed);
+			return this;
+		}
+
+		public CompletableFuture<TransportResponse> next()
+		{
+			attempts++;
+			return script.removeFirst();
+		}
+
+		@Override
+		public CompletableFuture<TransportResponse> send(TransportRequest request)
+		{
+			return next();
+		}
+
+		@Override
+		public CompletableFuture<Integer> stream(TransportRequest request, StreamListener listener)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CompletableFuture<Void> delay(long delayMillis)
+		{
+			delays.add(delayMillis);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
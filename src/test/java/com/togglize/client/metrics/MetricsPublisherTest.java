@@ -0,0 +1,97 @@
+package com.togglize.client.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.togglize.client.StubTogglesServer;
+import com.togglize.client.TogglesConfiguration;
+import com.togglize.client.TogglesException;
+import com.togglize.client.authn.TokenManager;
+import com.togglize.client.http.AsyncHttpTransport;
+import com.togglize.client.http.HttpTransport;
+
+public class MetricsPublisherTest
+{
+	private StubTogglesServer server;
+	private HttpTransport transport;
+
+	@Before
+	public void startServer()
+	throws Exception
+	{
+		server = new StubTogglesServer().start();
+	}
+
+	@After
+	public void stopServer()
+	{
+		if (transport != null) transport.close();
+		server.stop();
+	}
+
+	@Test
+	public void shouldCompressAboveThreshold()
+	throws Exception
+	{
+		TogglesConfiguration config = server.newConfiguration().setCompressionThresholdBytes(64);
+		TransferStats stats = new TransferStats();
+		transport = new AsyncHttpTransport(config);
+		MetricsPublisher publisher = new MetricsPublisher(new StubTokenManager(), transport, config, stats);
+		String small = "{\"evaluations\": 1}";
+		String large = "{\"evaluations\": [" + String.join(",", Collections.nCopies(100, "{\"feature\": \"Fantastic Feature\", \"result\": true}")) + "]}";
+
+		publisher.publish(small);
+		assertNull(server.getUploadHeaders().get(0).getFirst("Content-Encoding"));
+		assertEquals(small.length(), stats.getWireBytesSent());
+
+		publisher.publish(large);
+		assertEquals("gzip", server.getUploadHeaders().get(1).getFirst("Content-Encoding"));
+		assertEquals(large, server.getUploads().get(1));
+		assertEquals(small.length() + large.length(), stats.getUnencodedBytesSent());
+		assertTrue(stats.getWireBytesSent() < small.length() + large.length() / 4);
+	}
+
+	@Test
+	public void shouldRejectFailedUpload()
+	throws Exception
+	{
+		// The stub only accepts metrics for its own stage.
+		TogglesConfiguration config = server.newConfiguration().setStage("missing");
+		transport = new AsyncHttpTransport(config);
+		MetricsPublisher publisher = new MetricsPublisher(new StubTokenManager(), transport, config, new TransferStats());
+
+		try
+		{
+			publisher.publish("{\"evaluations\": 1}");
+			fail("Expected the upload to be rejected");
+		}
+		catch (TogglesException e)
+		{
+			assertEquals(TogglesException.class, e.getClass());
+			assertTrue(e.getMessage().contains("404"));
+		}
+	}
+
+	private static class StubTokenManager
+	implements TokenManager
+	{
+		@Override
+		public String getAccessToken()
+		{
+			return "stub";
+		}
+
+		@Override
+		public void newAccessToken()
+		{
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.togglize.client.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.Stage;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+import com.togglize.client.domain.User;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class BinarySnapshotTest
+{
+	@Test
+	public void shouldRoundTripWithNullFeature()
+	{
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("userIds", "a,b");
+		Map<String, FeatureToggle> features = new HashMap<>();
+		features.put("Beta Feature", new FeatureToggle("Beta Feature", true, Collections.singletonList(new Strategy("userWithId", parameters))));
+		features.put("Disabled Feature", new FeatureToggle("Disabled Feature", false, null));
+		features.put("Missing Feature", null);
+		TogglesSnapshot snapshot = new TogglesSnapshot(new StageToggles(new Stage("s1", "development"), features, "7", false, null),
+			1234l, "\"v7\"", null, new StrategyCompiler());
+
+		TogglesSnapshot decoded = BinarySnapshot.decode(ByteBuffer.wrap(BinarySnapshot.encode(snapshot)), new StrategyCompiler());
+
+		assertTrue(decoded.hasSameToggles(snapshot));
+		assertEquals(3, decoded.size());
+		assertEquals(snapshot.getLayoutId(), decoded.getLayoutId());
+		assertEquals("7", decoded.getVersion());
+		assertEquals("\"v7\"", decoded.getEtag());
+		assertEquals(1234l, decoded.getFetchedAt());
+		assertNull(decoded.getFeatureToggle("Missing Feature"));
+		assertFalse(decoded.isEnabled("Missing Feature", null, false));
+		assertFalse(decoded.isEnabled("Disabled Feature", null, true));
+		assertTrue(decoded.isEnabled("Beta Feature", new TogglesContext().setUser(new User("a")), false));
+		assertFalse(decoded.isEnabled("Beta Feature", new TogglesContext().setUser(new User("c")), true));
+
+		StageToggles toggles = BinarySnapshot.decodeToggles(ByteBuffer.wrap(BinarySnapshot.encode(snapshot)));
+		assertEquals("7", toggles.getVersion());
+		assertEquals("development", toggles.getStage().getName());
+		assertEquals(3, toggles.getFeatures().size());
+		assertNull(toggles.getFeatureToggle("Missing Feature"));
+		assertEquals("a,b", toggles.getFeatureToggle("Beta Feature").getStrategies().iterator().next().getParameters().get("userIds"));
+	}
+}
@@ -0,0 +1,77 @@
+package com.togglize.client.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.togglize.client.Json;
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.User;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class FileSnapshotStoreTest
+{
+	private static final String TOGGLES = "{"
+		+ "\"stage\": {\"id\": \"s1\", \"name\": \"development\"},"
+		+ "\"version\": \"7\","
+		+ "\"features\": {"
+		+ "  \"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": true},"
+		+ "  \"Beta Feature\": {\"name\": \"Beta Feature\", \"enabled\": true, \"strategies\": ["
+		+ "    {\"name\": \"userWithId\", \"parameters\": {\"userIds\": \"a,b\"}}"
+		+ "  ]}"
+		+ "}}";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldRoundTripSnapshot()
+	throws Exception
+	{
+		FileSnapshotStore store = new FileSnapshotStore(folder.getRoot().toPath().resolve("toggles.json"));
+		StageToggles toggles = Json.MAPPER.readValue(TOGGLES, StageToggles.class);
+		store.save(new TogglesSnapshot(toggles, 1234l, "\"v7\"", "Tue, 01 Oct 2019 00:00:00 GMT", new StrategyCompiler()));
+
+		TogglesSnapshot read = store.load(new StrategyCompiler());
+
+		assertEquals(1234l, read.getFetchedAt());
+		assertEquals("\"v7\"", read.getEtag());
+		assertEquals("Tue, 01 Oct 2019 00:00:00 GMT", read.getLastModified());
+		assertEquals("7", read.getVersion());
+		assertEquals("development", read.getStage().getName());
+		assertEquals(2, read.size());
+		assertTrue(read.isEnabled("Fantastic Feature", null, false));
+		assertTrue(read.isEnabled("Beta Feature", new TogglesContext().setUser(new User("a")), false));
+		assertFalse(read.isEnabled("Beta Feature", new TogglesContext().setUser(new User("c")), true));
+
+		// Only the snapshot itself remains. No temporary files are left behind.
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void shouldAnswerNullWithoutFile()
+	throws Exception
+	{
+		assertNull(new FileSnapshotStore(folder.getRoot().toPath().resolve("missing.json")).load(new StrategyCompiler()));
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectCorruptFile()
+	throws Exception
+	{
+		Path path = folder.newFile("corrupt.json").toPath();
+		Files.write(path, "{\"toggles\": {\"features\": ".getBytes(StandardCharsets.UTF_8));
+		new FileSnapshotStore(path).load(new StrategyCompiler());
+	}
+}
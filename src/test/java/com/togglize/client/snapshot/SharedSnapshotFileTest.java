@@ -0,0 +1,128 @@
+package com.togglize.client.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.FeatureToggle;
+import com.togglize.client.domain.Stage;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.Strategy;
+import com.togglize.client.domain.User;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class SharedSnapshotFileTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldShareSnapshotWithReaders()
+	throws Exception
+	{
+		Path path = folder.getRoot().toPath().resolve("toggles.shared");
+
+		try (SharedSnapshotFile writer = new SharedSnapshotFile(path);
+			SharedSnapshotFile reader = new SharedSnapshotFile(path))
+		{
+			assertTrue(writer.tryAcquireWriter());
+			assertFalse(reader.tryAcquireWriter());
+			assertNull(reader.readIfChanged(new StrategyCompiler()));
+
+			writer.write(snapshot(3, "7"));
+			TogglesSnapshot read = reader.readIfChanged(new StrategyCompiler());
+
+			assertEquals(3, read.size());
+			assertEquals("7", read.getVersion());
+			assertEquals("\"v7\"", read.getEtag());
+			assertEquals(1234l, read.getFetchedAt());
+			assertEquals("development", read.getStage().getName());
+			assertTrue(read.isEnabled("Feature 0", new TogglesContext().setUser(new User("a")), false));
+			assertFalse(read.isEnabled("Feature 0", new TogglesContext().setUser(new User("c")), true));
+			assertFalse(read.isEnabled("Feature 1", null, true));
+
+			// Unchanged until the writer writes again.
+			assertNull(reader.readIfChanged(new StrategyCompiler()));
+			writer.write(snapshot(1, "8"));
+			assertEquals("8", reader.readIfChanged(new StrategyCompiler()).getVersion());
+		}
+	}
+
+	@Test
+	public void shouldGrowForLargeSnapshots()
+	throws Exception
+	{
+		Path path = folder.getRoot().toPath().resolve("toggles.shared");
+
+		try (SharedSnapshotFile writer = new SharedSnapshotFile(path);
+			SharedSnapshotFile reader = new SharedSnapshotFile(path))
+		{
+			writer.write(snapshot(5000, "1"));
+			assertEquals(5000, reader.readIfChanged(new StrategyCompiler()).size());
+		}
+	}
+
+	@Test
+	public void shouldHandOverWhenWriterCloses()
+	throws Exception
+	{
+		Path path = folder.getRoot().toPath().resolve("toggles.shared");
+
+		try (SharedSnapshotFile reader = new SharedSnapshotFile(path))
+		{
+			SharedSnapshotFile writer = new SharedSnapshotFile(path);
+			assertTrue(writer.tryAcquireWriter());
+			assertFalse(reader.tryAcquireWriter());
+			writer.close();
+			assertTrue(reader.tryAcquireWriter());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectCorruptSnapshot()
+	throws Exception
+	{
+		Path path = folder.getRoot().toPath().resolve("toggles.shared");
+
+		try (SharedSnapshotFile writer = new SharedSnapshotFile(path);
+			SharedSnapshotFile reader = new SharedSnapshotFile(path))
+		{
+			writer.write(snapshot(3, "7"));
+
+			try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw"))
+			{
+				file.seek(40);
+				file.write(0xff);
+			}
+
+			reader.readIfChanged(new StrategyCompiler());
+		}
+	}
+
+	private TogglesSnapshot snapshot(int size, String version)
+	{
+		Map<String, FeatureToggle> features = new HashMap<>();
+
+		for (int i = 0; i < size; i++)
+		{
+			Map<String, String> parameters = new HashMap<>();
+			parameters.put("userIds", "a,b");
+			features.put("Feature " + i, new FeatureToggle("Feature " + i, i % 2 == 0, Collections.singletonList(new Strategy("userWithId", parameters))));
+		}
+
+		return new TogglesSnapshot(new StageToggles(new Stage("s1", "development"), features, version, false, null), 1234l, "\"v" + version + "\"", null, new StrategyCompiler());
+	}
+}
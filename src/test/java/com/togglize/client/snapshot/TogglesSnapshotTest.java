@@ -0,0 +1,179 @@
+package com.togglize.client.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.domain.User;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class TogglesSnapshotTest
+{
+	private static final String TOGGLES = "{"
+		+ "\"stage\": {\"id\": \"s1\", \"name\": \"development\"},"
+		+ "\"features\": {"
+		+ "  \"Fantastic Feature\": {\"name\": \"Fantastic Feature\", \"enabled\": true},"
+		+ "  \"Disabled Feature\": {\"name\": \"Disabled Feature\", \"enabled\": false},"
+		+ "  \"Beta Feature\": {\"name\": \"Beta Feature\", \"enabled\": true, \"strategies\": ["
+		+ "    {\"name\": \"userWithId\", \"parameters\": {\"userIds\": \"a,b\"}}"
+		+ "  ]}"
+		+ "}}";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+		.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+		.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+
+	@Test
+	public void shouldEvaluateBySlot()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot(TOGGLES);
+		TogglesContext a = new TogglesContext().setUser(new User("a"));
+
+		assertEquals(3, snapshot.size());
+		assertEquals(-1, snapshot.slotOf("Missing Feature"));
+		assertTrue(snapshot.isEnabled(snapshot.slotOf("Fantastic Feature"), null));
+		assertFalse(snapshot.isEnabled(snapshot.slotOf("Disabled Feature"), a));
+		assertTrue(snapshot.isEnabled("Beta Feature", a, false));
+		assertFalse(snapshot.isEnabled("Beta Feature", null, true));
+		assertTrue(snapshot.isEnabled("Missing Feature", a, true));
+	}
+
+	@Test
+	public void shouldEvaluateAll()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot(TOGGLES);
+		Evaluations evaluations = snapshot.evaluateAll(new TogglesContext().setUser(new User("b")));
+
+		assertEquals(3, evaluations.size());
+		assertEquals(Arrays.asList("Beta Feature", "Fantastic Feature"), evaluations.getEnabledFeatures());
+		assertFalse(evaluations.isEnabled("Disabled Feature", true));
+		assertTrue(evaluations.isEnabled("Missing Feature", true));
+		assertFalse(Evaluations.empty().isEnabled("Fantastic Feature"));
+	}
+
+	@Test
+	public void shouldRoundTripHeaderValue()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot(TOGGLES);
+		Evaluations evaluations = snapshot.evaluateAll(null);
+		String header = evaluations.toHeaderValue();
+		Evaluations decoded = Evaluations.fromHeaderValue(header, snapshot(TOGGLES));
+
+		assertEquals(evaluations.toBitSet(), decoded.toBitSet());
+		assertEquals(evaluations.getEnabledFeatures(), decoded.getEnabledFeatures());
+		assertNull(Evaluations.fromHeaderValue(header, snapshot("{\"features\": {}}")));
+		assertNull(Evaluations.fromHeaderValue("garbage", snapshot));
+	}
+
+	@Test
+	public void shouldEvaluateBatch()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot("{\"features\": {\"Rollout\": {\"enabled\": true, \"strategies\": ["
+			+ "{\"name\": \"gradualRollout\", \"parameters\": {\"percentage\": \"25\"}}]}}}");
+		TogglesContext[] contexts = new TogglesContext[20000];
+
+		for (int i = 0; i < contexts.length; i++)
+		{
+			contexts[i] = (i % 1000 == 0 ? null : new TogglesContext().setUser(new User("user-" + i)));
+		}
+
+		BitSet sequential = snapshot.evaluateBatch("Rollout", contexts, false, null);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try
+		{
+			assertEquals(sequential, snapshot.evaluateBatch("Rollout", contexts, false, pool));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < contexts.length; i++)
+		{
+			assertEquals(snapshot.isEnabled("Rollout", contexts[i], false), sequential.get(i));
+		}
+
+		assertEquals(contexts.length, snapshot.evaluateBatch("Missing", contexts, true, null).cardinality());
+	}
+
+	@Test
+	public void shouldApplyDelta()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot(TOGGLES);
+		StageToggles delta = MAPPER.readValue("{\"version\": \"2\", \"delta\": true, \"features\": {"
+			+ "  \"Disabled Feature\": {\"name\": \"Disabled Feature\", \"enabled\": true},"
+			+ "  \"New Feature\": {\"name\": \"New Feature\", \"enabled\": true}"
+			+ "}, \"removed\": [\"Fantastic Feature\"]}", StageToggles.class);
+		TogglesSnapshot applied = snapshot.applyDelta(delta, System.currentTimeMillis(), null, null, new StrategyCompiler());
+		TogglesContext a = new TogglesContext().setUser(new User("a"));
+
+		assertEquals("2", applied.getVersion());
+		assertEquals(3, applied.size());
+		assertEquals(-1, applied.slotOf("Fantastic Feature"));
+		assertTrue(applied.isEnabled("Disabled Feature", null, false));
+		assertTrue(applied.isEnabled("New Feature", null, false));
+		assertTrue(applied.isEnabled("Beta Feature", a, false));
+		assertFalse(applied.isEnabled("Beta Feature", null, true));
+		assertSame(snapshot.getFeatureToggle("Beta Feature"), applied.getFeatureToggle("Beta Feature"));
+		assertEquals(snapshot.getStage(), applied.getStage());
+
+		// The original snapshot is untouched.
+		assertEquals(3, snapshot.size());
+		assertFalse(snapshot.isEnabled("Disabled Feature", null, true));
+	}
+
+	@Test
+	public void shouldTellChangesFromRevalidations()
+	throws Exception
+	{
+		TogglesSnapshot snapshot = snapshot(TOGGLES);
+		StageToggles toggles = MAPPER.readValue(TOGGLES, StageToggles.class);
+
+		assertTrue(snapshot.hasSameToggles(snapshot.withFetchedAt(System.currentTimeMillis())));
+		assertFalse(snapshot.hasSameToggles(null));
+		assertTrue(new TogglesSnapshot(toggles, 0l, "\"v1\"", null, new StrategyCompiler())
+			.hasSameToggles(new TogglesSnapshot(toggles, 1l, "\"v1\"", null, new StrategyCompiler())));
+		assertFalse(new TogglesSnapshot(toggles, 0l, "\"v1\"", null, new StrategyCompiler())
+			.hasSameToggles(new TogglesSnapshot(toggles, 1l, "\"v2\"", null, new StrategyCompiler())));
+	}
+
+	@Test
+	public void shouldCompareContentWithoutValidators()
+	throws Exception
+	{
+		String rollout = "{\"features\": {\"Rollout\": {\"name\": \"Rollout\", \"enabled\": true, \"strategies\": ["
+			+ "{\"name\": \"gradualRollout\", \"parameters\": {\"percentage\": \"%s\"}}]}}}";
+		TogglesSnapshot snapshot = snapshot(String.format(rollout, "25"));
+
+		assertTrue(snapshot.hasSameToggles(snapshot(String.format(rollout, "25"))));
+		assertFalse(snapshot.hasSameToggles(snapshot(String.format(rollout, "50"))));
+		assertFalse(snapshot.hasSameToggles(snapshot("{\"features\": {\"Rollout\": {\"name\": \"Rollout\", \"enabled\": false}}}")));
+		assertFalse(snapshot.hasSameToggles(snapshot(TOGGLES)));
+	}
+
+	static TogglesSnapshot snapshot(String json)
+	throws Exception
+	{
+		return new TogglesSnapshot(MAPPER.readValue(json, StageToggles.class), System.currentTimeMillis(), new StrategyCompiler());
+	}
+}
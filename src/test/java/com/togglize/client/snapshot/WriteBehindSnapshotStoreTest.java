@@ -0,0 +1,126 @@
+package com.togglize.client.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.togglize.client.domain.StageToggles;
+import com.togglize.client.strategy.StrategyCompiler;
+
+public class WriteBehindSnapshotStoreTest
+{
+	@Test
+	public void shouldBatchSaves()
+	throws Exception
+	{
+		CountingStore counting = new CountingStore();
+		WriteBehindSnapshotStore store = new WriteBehindSnapshotStore(counting, 100l);
+		TogglesSnapshot latest = null;
+
+		for (int i = 0; i < 3; i++)
+		{
+			latest = snapshot(i);
+			store.save(latest);
+		}
+
+		// Nothing written yet, but the pending snapshot is what loads.
+		assertEquals(0, counting.saves.get());
+		assertSame(latest, store.load(new StrategyCompiler()));
+
+		long deadline = System.currentTimeMillis() + 5000l;
+
+		while (counting.saves.get() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10l);
+		}
+
+		assertEquals(1, counting.saves.get());
+		assertSame(latest, counting.load(null));
+		store.close();
+	}
+
+	@Test
+	public void shouldFlushOnClose()
+	throws Exception
+	{
+		CountingStore counting = new CountingStore();
+		WriteBehindSnapshotStore store = new WriteBehindSnapshotStore(counting, 60000l);
+		TogglesSnapshot snapshot = snapshot(0);
+		store.save(snapshot);
+		assertNull(counting.load(null));
+
+		store.close();
+		assertSame(snapshot, counting.load(null));
+		assertEquals(1, counting.saves.get());
+	}
+
+	@Test
+	public void shouldFinishSlowSaveOnClose()
+	throws Exception
+	{
+		SlowStore slow = new SlowStore();
+		WriteBehindSnapshotStore store = new WriteBehindSnapshotStore(slow, 0l);
+		TogglesSnapshot first = snapshot(0);
+		store.save(first);
+		assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+		// Saved while the first write is still in progress.
+		TogglesSnapshot latest = snapshot(1);
+		store.save(latest);
+		store.close();
+
+		assertEquals(2, slow.saves.get());
+		assertSame(latest, slow.load(null));
+	}
+
+	private TogglesSnapshot snapshot(long fetchedAt)
+	{
+		return new TogglesSnapshot(new StageToggles(), fetchedAt, new StrategyCompiler());
+	}
+
+	private static class CountingStore
+	extends InMemorySnapshotStore
+	{
+		private AtomicInteger saves = new AtomicInteger();
+
+		@Override
+		public void save(TogglesSnapshot snapshot)
+		{
+			saves.incrementAndGet();
+			super.save(snapshot);
+		}
+	}
+
+	private static class SlowStore
+	extends InMemorySnapshotStore
+	{
+		private CountDownLatch started = new CountDownLatch(1);
+		private AtomicInteger saves = new AtomicInteger();
+
+		@Override
+		public void save(TogglesSnapshot snapshot)
+		{
+			started.countDown();
+
+			try
+			{
+				Thread.sleep(300l);
+			}
+			catch (InterruptedException e)
+			{
+				// An interrupted write never reaches the store.
+				return;
+			}
+
+			saves.incrementAndGet();
+			super.save(snapshot);
+		}
+	}
+}
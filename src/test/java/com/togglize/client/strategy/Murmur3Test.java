@@ -0,0 +1,38 @@
+package com.togglize.client.strategy;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Murmur3Test
+{
+	@Test
+	public void shouldMatchReferenceVectors()
+	{
+		assertEquals(0, Murmur3.hash32("", 0));
+		assertEquals(0x514e28b7, Murmur3.hash32("", 1));
+		assertEquals(0x3c2569b2, Murmur3.hash32("a", 0));
+		assertEquals(0x9bbfd75f, Murmur3.hash32("ab", 0));
+		assertEquals(0xb3dd93fa, Murmur3.hash32("abc", 0));
+		assertEquals(0x43ed676a, Murmur3.hash32("abcd", 0));
+		assertEquals(0x248bfa47, Murmur3.hash32("hello", 0));
+		assertEquals(0x2e4ff723, Murmur3.hash32("The quick brown fox jumps over the lazy dog", 0));
+	}
+
+	@Test
+	public void shouldHashUtf8Encoding()
+	{
+		assertEquals(0x33180328, Murmur3.hash32("héllo wörld", 42));
+		assertEquals(0x6efde218, Murmur3.hash32("日本語", 7));
+		assertEquals(0xbd5850b4, Murmur3.hash32("emoji 😀!", 123));
+	}
+
+	@Test
+	public void shouldBucketDeterministically()
+	{
+		PercentageRolloutStrategy strategy = new PercentageRolloutStrategy("Fantastic Feature", 50d, ContextAttribute.named(null));
+
+		assertEquals(8837, strategy.bucketOf("user-42"));
+		assertEquals(7898, strategy.bucketOf("2b1c9f"));
+	}
+}
@@ -0,0 +1,116 @@
+package com.togglize.client.strategy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.togglize.client.TogglesContext;
+import com.togglize.client.domain.Strategy;
+import com.togglize.client.domain.User;
+
+public class StrategyCompilerTest
+{
+	private StrategyCompiler compiler = new StrategyCompiler();
+
+	@Test
+	public void shouldBeUnconditionalWithoutStrategies()
+	{
+		assertNull(compiler.compile("feature", null));
+		assertNull(compiler.compile("feature", Collections.emptyList()));
+		assertNull(compiler.compile("feature", Arrays.asList(strategy("userWithId", "userIds", "a"), strategy("default"))));
+	}
+
+	@Test
+	public void shouldMatchUserIds()
+	{
+		StrategyEvaluator evaluator = compiler.compile("feature", Arrays.asList(strategy("userWithId", "userIds", "a, b ,c")));
+
+		assertTrue(evaluator.evaluate(user("b")));
+		assertFalse(evaluator.evaluate(user("d")));
+		assertFalse(evaluator.evaluate(new TogglesContext()));
+		assertFalse(evaluator.evaluate(null));
+	}
+
+	@Test
+	public void shouldMatchAttributes()
+	{
+		StrategyEvaluator evaluator = compiler.compile("feature", Arrays.asList(strategy("attributeMatch", "attribute", "region", "values", "us-east,eu-west")));
+
+		assertTrue(evaluator.evaluate(new TogglesContext().put("region", "eu-west")));
+		assertFalse(evaluator.evaluate(new TogglesContext().put("region", "ap-south")));
+		assertFalse(evaluator.evaluate(new TogglesContext()));
+	}
+
+	@Test
+	public void shouldMatchAnyStrategy()
+	{
+		StrategyEvaluator evaluator = compiler.compile("feature", Arrays.asList(
+			strategy("userWithId", "userIds", "a"),
+			strategy("attributeMatch", "attribute", "region", "values", "us-east")));
+
+		assertTrue(evaluator.evaluate(user("a")));
+		assertTrue(evaluator.evaluate(new TogglesContext().put("region", "us-east")));
+		assertFalse(evaluator.evaluate(user("b")));
+	}
+
+	@Test
+	public void shouldNeverSatisfyUnknownStrategies()
+	{
+		StrategyEvaluator evaluator = compiler.compile("feature", Arrays.asList(strategy("noSuchStrategy")));
+
+		assertFalse(evaluator.evaluate(user("a")));
+	}
+
+	@Test
+	public void shouldRollOutToPercentageOfUsers()
+	{
+		StrategyEvaluator none = compiler.compile("feature", Arrays.asList(strategy("gradualRollout", "percentage", "0")));
+		StrategyEvaluator all = compiler.compile("feature", Arrays.asList(strategy("gradualRollout", "percentage", "100")));
+		StrategyEvaluator half = compiler.compile("feature", Arrays.asList(strategy("gradualRollout", "percentage", "50")));
+		int included = 0;
+
+		for (int i = 0; i < 10000; i++)
+		{
+			TogglesContext context = user("user-" + i);
+			assertFalse(none.evaluate(context));
+			assertTrue(all.evaluate(context));
+			assertTrue(half.evaluate(context) == half.evaluate(context));
+
+			if (half.evaluate(context)) included++;
+		}
+
+		assertTrue("included " + included, included > 4500 && included < 5500);
+	}
+
+	@Test
+	public void shouldUseRegisteredStrategies()
+	{
+		compiler.register("always", (feature, parameters) -> context -> true);
+
+		assertTrue(compiler.compile("feature", Arrays.asList(strategy("always"))).evaluate(null));
+	}
+
+	private static Strategy strategy(String name, String... parameters)
+	{
+		Map<String, String> map = new HashMap<>();
+
+		for (int i = 0; i < parameters.length; i += 2)
+		{
+			map.put(parameters[i], parameters[i + 1]);
+		}
+
+		return new Strategy(name, map);
+	}
+
+	private static TogglesContext user(String id)
+	{
+		return new TogglesContext().setUser(new User(id));
+	}
+}